@@ -1,40 +1,106 @@
 package de.fraunhofer.fokus.ids.controller;
 
 import de.fraunhofer.fokus.ids.services.IDSService;
+import de.fraunhofer.fokus.ids.utils.ConfigSnapshot;
+import de.fraunhofer.fokus.ids.utils.JwtClaims;
+import de.fraunhofer.fokus.ids.utils.QueryPaging;
+import de.fraunhofer.fokus.ids.utils.QueryResultCache;
+import de.fraunhofer.fokus.ids.utils.SparqlAdmission;
 import de.fraunhofer.fokus.ids.utils.TSConnector;
 import de.fraunhofer.iais.eis.RejectionReason;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.HttpResponse;
 import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 public class QueryMessageController {
     private TSConnector tsConnector;
     private IDSService idsService;
+    private QueryResultCache queryResultCache;
+    private SparqlAdmission sparqlAdmission;
+    private QueryPaging queryPaging;
     private Logger LOGGER = LoggerFactory.getLogger(QueryMessageController.class.getName());
+    private static final String RESULT_ACCEPT = "application/json";
+    private static final String UNKNOWN_ISSUER = "anonymous";
+    private static final Set<String> RESULT_MIME_TYPES = new HashSet<>(Arrays.asList("application/json", "application/sparql-results+json", "application/ld+json"));
 
 
     public QueryMessageController(TSConnector tsConnector, Vertx vertx){
         this.tsConnector = tsConnector;
         this.idsService = new IDSService(vertx,tsConnector);
+        this.queryResultCache = QueryResultCache.shared(vertx);
+        JsonObject brokerConfig = ConfigSnapshot.get(vertx).getJsonObject("BROKER_CONFIG");
+        this.sparqlAdmission = new SparqlAdmission(brokerConfig.getJsonObject("queryAdmission", new JsonObject()));
+        this.queryPaging = new QueryPaging(brokerConfig.getJsonObject("queryPaging", new JsonObject()));
     }
 
-    public void queryMessage(String query , URI correlationMessageURI, Handler<AsyncResult<HttpEntity>> resultHandler) {
-        tsConnector.query(query,"application/json",httpResponseAsyncResult -> {
-            if (httpResponseAsyncResult.succeeded()) {
-                LOGGER.info("Query Message succeeded");
-                idsService.createResultMessage(correlationMessageURI, reply -> {
-                if(reply.succeeded()){
-                    idsService.createMultiPartMessage(correlationMessageURI, reply.result(), httpResponseAsyncResult.result().bodyAsJsonObject(),resultHandler);
-                } else {
-                    LOGGER.error(reply.cause());
-                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,correlationMessageURI,resultHandler);
-                }
-                });
+    /**
+     * Answers a QueryMessage with the SPARQL result of the triplestore. The result is passed on as payload unparsed,
+     * only status code and content type of the response are checked.
+     * Queries pass the SparqlAdmission first, rejected queries are answered right away without asking the triplestore.
+     * Results are served from the QueryResultCache while the triplestore has not been written to.
+     * Partial results of queries Virtuoso stopped at the timeout are marked with an X-SQL-State header, they are rejected and not cached.
+     * SELECT results are returned page by page, a reply with more results to come carries a continuation token,
+     * which is sent as query of the next QueryMessage to fetch the next page.
+     */
+    public void queryMessage(String query , String securityToken, URI correlationMessageURI, Handler<AsyncResult<HttpEntity>> resultHandler) {
+        QueryPaging.Page page;
+        try {
+            long offset = 0;
+            if (QueryPaging.isContinuation(query)) {
+                JsonObject continuation = QueryPaging.decodeContinuation(query);
+                query = continuation.getString("query");
+                offset = continuation.getLong("offset");
+            }
+            page = queryPaging.page(sparqlAdmission.admit(query), offset);
+        } catch (IllegalArgumentException e) {
+            LOGGER.info("Query rejected: " + e.getMessage());
+            idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS,correlationMessageURI,resultHandler);
+            return;
+        }
+        String admittedQuery = page.getPageQuery();
+        String cacheKey = QueryResultCache.key(admittedQuery, RESULT_ACCEPT);
+        QueryResultCache.Result cachedResult = queryResultCache.get(cacheKey);
+        if (cachedResult != null) {
+            replyResult(cachedResult, page, correlationMessageURI, resultHandler);
+            return;
+        }
+        String issuer = issuerOf(securityToken);
+        if (!sparqlAdmission.acquire(issuer)) {
+            LOGGER.info("Query rejected: too many concurrent queries of " + issuer);
+            idsService.handleRejectionMessage(RejectionReason.TEMPORARILY_NOT_AVAILABLE,correlationMessageURI,resultHandler);
+            return;
+        }
+        long generation = queryResultCache.getGeneration();
+        tsConnector.query(admittedQuery,RESULT_ACCEPT,sparqlAdmission.getTimeout(),httpResponseAsyncResult -> {
+            sparqlAdmission.release(issuer);
+            if (httpResponseAsyncResult.succeeded() && httpResponseAsyncResult.result().getHeader("X-SQL-State") != null) {
+                HttpResponse<Buffer> response = httpResponseAsyncResult.result();
+                LOGGER.info("Query stopped by the triplestore: " + response.getHeader("X-SQL-State") + " " + response.getHeader("X-SQL-Message"));
+                idsService.handleRejectionMessage(RejectionReason.TOO_MANY_RESULTS,correlationMessageURI,resultHandler);
+            }
+            else if (httpResponseAsyncResult.succeeded()) {
+                HttpResponse<Buffer> response = httpResponseAsyncResult.result();
+                QueryResultCache.Result result = new QueryResultCache.Result(response.body() != null ? response.body() : Buffer.buffer(), response.getHeader("Content-Type"));
+                queryResultCache.put(cacheKey, result, generation);
+                replyResult(result, page, correlationMessageURI, resultHandler);
+            }
+            else if (httpResponseAsyncResult.cause() instanceof TimeoutException) {
+                LOGGER.info("Query timed out after " + sparqlAdmission.getTimeout() + " ms.");
+                idsService.handleRejectionMessage(RejectionReason.TOO_MANY_RESULTS,correlationMessageURI,resultHandler);
             }
             else{
                 LOGGER.error(httpResponseAsyncResult.cause());
@@ -42,4 +108,56 @@ public class QueryMessageController {
             }
         });
     }
+
+    /**
+     * @return the subject of the validated DAT, so that the issuer cannot be chosen freely by the sender of the message
+     */
+    private String issuerOf(String securityToken) {
+        String subject = securityToken != null ? JwtClaims.of(securityToken).getSubject() : null;
+        return subject != null ? subject : UNKNOWN_ISSUER;
+    }
+
+    private void replyResult(QueryResultCache.Result result, QueryPaging.Page page, URI correlationMessageURI, Handler<AsyncResult<HttpEntity>> resultHandler) {
+        ContentType contentType = resultContentType(result.getContentType());
+        if (contentType == null) {
+            LOGGER.error("Unexpected content type of query result: " + result.getContentType());
+            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,correlationMessageURI,resultHandler);
+            return;
+        }
+        String continuation;
+        try {
+            continuation = page.continuation(result.getBody());
+        } catch (IllegalStateException e) {
+            LOGGER.error("Next page of query result could not be determined.", e);
+            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,correlationMessageURI,resultHandler);
+            return;
+        }
+        LOGGER.info("Query Message succeeded");
+        idsService.createResultMessage(correlationMessageURI, reply -> {
+            if(reply.succeeded()){
+                idsService.createMultiPartMessage(correlationMessageURI, reply.result(), result.getBody(), contentType, continuation, resultHandler);
+            } else {
+                LOGGER.error(reply.cause());
+                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,correlationMessageURI,resultHandler);
+            }
+        });
+    }
+
+    /**
+     * @return the content type to forward the result with or null if it is no JSON serialization of a SPARQL result
+     */
+    private ContentType resultContentType(String contentTypeHeader) {
+        if (contentTypeHeader == null) {
+            return null;
+        }
+        try {
+            ContentType contentType = ContentType.parse(contentTypeHeader);
+            if (RESULT_MIME_TYPES.contains(contentType.getMimeType().toLowerCase())) {
+                return contentType.getCharset() != null ? contentType : contentType.withCharset(StandardCharsets.UTF_8);
+            }
+        } catch (Exception e) {
+            LOGGER.error(e);
+        }
+        return null;
+    }
 }
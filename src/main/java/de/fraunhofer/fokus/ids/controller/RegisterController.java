@@ -6,6 +6,8 @@ import de.fraunhofer.fokus.ids.manager.GraphManager;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageService;
 import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformerService;
+import de.fraunhofer.fokus.ids.utils.ConcurrencyLimiter;
+import de.fraunhofer.fokus.ids.utils.ContentFingerprint;
 import de.fraunhofer.fokus.ids.utils.TSConnector;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
@@ -16,9 +18,11 @@ import org.apache.http.HttpEntity;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 public class RegisterController {
     private Logger LOGGER = LoggerFactory.getLogger(RegisterController.class.getName());
@@ -29,10 +33,12 @@ public class RegisterController {
     private IDSService idsService;
     private PiveauMessageService piveauMessageService;
     private DCATTransformerService dcatTransformerService;
+    private ConcurrencyLimiter concurrencyLimiter;
     private Serializer serializer = new Serializer();
 
-    public RegisterController(Vertx vertx, GraphManager graphManager,TSConnector tsConnector){
+    public RegisterController(Vertx vertx, GraphManager graphManager, TSConnector tsConnector, ConcurrencyLimiter concurrencyLimiter){
         this.graphManager = graphManager;
+        this.concurrencyLimiter = concurrencyLimiter;
         this.catalogueManager = new CatalogueManager(vertx);
         this.datasetManager = new DatasetManager(vertx);
         this.idsService = new IDSService(vertx,tsConnector);
@@ -51,9 +57,11 @@ public class RegisterController {
                             LOGGER.info("Dataset " + resource.getId().toString() + " is already registered in the internal database. Rejecting ResrouceAvailableMessage.");
                             idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
                         } else {
-                            java.util.Map<String, Promise> dataassetCreatePromises = new HashMap<>();
-                            saveDatasetInDatabase(uri,cataloguePiveauId,resource,dataassetCreatePromises,readyHandler);
-                            composeAllPromises(uri,readyHandler,dataassetCreatePromises);
+                            java.util.Map<String, String> createdDatasets = new HashMap<>();
+                            java.util.Map<String, String> contentHashes = new HashMap<>();
+                            Promise<Void> datasetPromise = Promise.promise();
+                            concurrencyLimiter.execute(promise -> saveDatasetInPiveau(cataloguePiveauId, resource, createdDatasets, contentHashes, promise), datasetPromise);
+                            persistDatasets(uri, readyHandler, Collections.singletonList(datasetPromise.future()), createdDatasets, contentHashes, cataloguePiveauId);
                         }
                     });
                 }
@@ -117,75 +125,79 @@ public class RegisterController {
             next.handle(Future.failedFuture(reply.cause()));
         }
     }
-    private void saveDatasetInDatabase(URI uri, String catalogueId, Resource resource, java.util.Map<String, Promise> dataassetCreatePromises, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    /**
+     * Creates graph and piveau dataset of a resource. The internal id of the created dataset is added to createdDatasets
+     * and its fingerprint to contentHashes, so that all mappings of a catalogue can be persisted with one batch update.
+     */
+    private void saveDatasetInPiveau(String catalogueId, Resource resource, java.util.Map<String, String> createdDatasets, java.util.Map<String, String> contentHashes, Promise<Void> datasetPromise) {
         StaticEndpoint staticEndpoint = (StaticEndpoint) resource.getResourceEndpoint().get(0);
         String date = staticEndpoint.getEndpointArtifact().getCreationDate().toString();
         try {
-            graphManager.create(resource.getId().toString(), serializer.serialize(resource), graphResult -> {
+            String datasetJson = serializer.serialize(resource);
+            contentHashes.put(resource.getId().toString(), ContentFingerprint.of(datasetJson));
+            graphManager.create(resource.getId().toString(), datasetJson, graphResult -> {
                 if (graphResult.succeeded()) {
-                    try {
-                        dcatTransformerService.transformDataset(serializer.serialize(resource), date, dataSetTransformResult -> {
-                            if (dataSetTransformResult.succeeded()) {
-                                dataassetCreatePromises.put(resource.getId().toString(), Promise.promise());
-                                String datasetId = UUID.randomUUID().toString();
-                                createDataSet(dataSetTransformResult.result(), resource.getId().toString(), datasetId, catalogueId, dataassetCreatePromises);
-                            } else {
-                                LOGGER.error(dataSetTransformResult.cause());
-                                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                            }
-                        });
-                    } catch (IOException e) {
-                        LOGGER.error(e);
-                        readyHandler.handle(Future.failedFuture(e));
-                    }
+                    dcatTransformerService.transformDataset(datasetJson, date, dataSetTransformResult -> {
+                        if (dataSetTransformResult.succeeded()) {
+                            String datasetId = UUID.randomUUID().toString();
+                            createDataSet(dataSetTransformResult.result(), resource.getId().toString(), datasetId, catalogueId, createdDatasets, datasetPromise);
+                        } else {
+                            LOGGER.error(dataSetTransformResult.cause());
+                            datasetPromise.fail(dataSetTransformResult.cause());
+                        }
+                    });
                 } else {
                     LOGGER.error(graphResult.cause());
-                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                    datasetPromise.fail(graphResult.cause());
                 }
             });
         } catch (IOException e) {
             LOGGER.error(e);
-            readyHandler.handle(Future.failedFuture(e));
+            datasetPromise.fail(e);
         }
     }
 
-    private void composeAllPromises(URI uri, Handler<AsyncResult<HttpEntity>> readyHandler, java.util.Map<String, Promise> dataassetCreatePromises) {
-        CompositeFuture.all(dataassetCreatePromises.values().stream().map(Promise::future).collect(Collectors.toList())).setHandler(ac -> {
-            if (ac.succeeded()) {
-                idsService.handleSucceededMessage(uri, readyHandler);
-            } else {
-                LOGGER.error(ac.cause());
-                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-            }
-        });
+    /**
+     * Waits for all dataset chains and stores the mappings of the datasets created in piveau, also if some chains failed.
+     */
+    private void persistDatasets(URI uri, Handler<AsyncResult<HttpEntity>> readyHandler, List<Future> datasetFutures, java.util.Map<String, String> createdDatasets, java.util.Map<String, String> contentHashes, String catalogueId) {
+        CompositeFuture.join(datasetFutures).setHandler(ac ->
+            datasetManager.createAll(createdDatasets, contentHashes, catalogueId, datasetPersistenceReply -> {
+                if (ac.succeeded() && datasetPersistenceReply.succeeded()) {
+                    idsService.handleSucceededMessage(uri, readyHandler);
+                } else {
+                    LOGGER.error(ac.failed() ? ac.cause() : datasetPersistenceReply.cause());
+                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                }
+            }));
     }
 
     private void handleDatasetCreation( AsyncResult<Void> internalCatalogueCreationReply, URI uri, Connector connector, String catalogueId, Handler<AsyncResult<HttpEntity>> readyHandler) {
         if (internalCatalogueCreationReply.succeeded()) {
-                    java.util.Map<String, Promise> dataassetCreatePromises = new HashMap<>();
+                    java.util.Map<String, String> createdDatasets = new HashMap<>();
+                    java.util.Map<String, String> contentHashes = new HashMap<>();
+                    List<Future> datasetFutures = new ArrayList<>();
                     if (connector.getCatalog() != null) {
                         for (Resource resource : connector.getCatalog().getOffer()) {
-                            saveDatasetInDatabase(uri,catalogueId,resource,dataassetCreatePromises,readyHandler);
+                            Promise<Void> datasetPromise = Promise.promise();
+                            concurrencyLimiter.execute(promise -> saveDatasetInPiveau(catalogueId, resource, createdDatasets, contentHashes, promise), datasetPromise);
+                            datasetFutures.add(datasetPromise.future());
                         }
-                        composeAllPromises(uri,readyHandler,dataassetCreatePromises);
                     }
+                    persistDatasets(uri, readyHandler, datasetFutures, createdDatasets, contentHashes, catalogueId);
         } else {
             idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
         }
     }
 
-    private void createDataSet(String transformedDataset, String datasetExternalId, String dataSetId, String catalogueId, java.util.Map<String, Promise> datasetUpdateFutures) {
+    private void createDataSet(String transformedDataset, String datasetExternalId, String dataSetId, String catalogueId, java.util.Map<String, String> createdDatasets, Promise<Void> datasetPromise) {
         piveauMessageService.createDataSet(transformedDataset, dataSetId, catalogueId, datasetReply -> {
             if (datasetReply.succeeded()) {
-                datasetManager.create(datasetExternalId, dataSetId, datasetPersistenceReply2 -> {
-                    if (datasetPersistenceReply2.succeeded()) {
-                        datasetUpdateFutures.get(datasetExternalId).complete();
-                    } else {
-                        datasetUpdateFutures.get(datasetExternalId).fail(datasetPersistenceReply2.cause());
-                    }
-                });
+                createdDatasets.put(datasetExternalId, dataSetId);
+                datasetPromise.complete();
             } else {
                 LOGGER.error(datasetReply.cause());
+                datasetPromise.fail(datasetReply.cause());
             }
         });
     }
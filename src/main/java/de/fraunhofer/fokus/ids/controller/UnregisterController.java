@@ -5,6 +5,7 @@ import de.fraunhofer.fokus.ids.manager.DatasetManager;
 import de.fraunhofer.fokus.ids.manager.GraphManager;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageService;
+import de.fraunhofer.fokus.ids.utils.ConcurrencyLimiter;
 import de.fraunhofer.fokus.ids.utils.TSConnector;
 import de.fraunhofer.iais.eis.Connector;
 import de.fraunhofer.iais.eis.RejectionReason;
@@ -17,8 +18,9 @@ import org.apache.http.HttpEntity;
 
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.stream.Collectors;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class UnregisterController {
 
@@ -29,9 +31,11 @@ public class UnregisterController {
     private DatasetManager datasetManager;
     private IDSService idsService;
     private PiveauMessageService piveauMessageService;
+    private ConcurrencyLimiter concurrencyLimiter;
 
-    public UnregisterController(Vertx vertx, GraphManager graphManager,TSConnector tsConnector){
+    public UnregisterController(Vertx vertx, GraphManager graphManager, TSConnector tsConnector, ConcurrencyLimiter concurrencyLimiter){
         this.graphManager = graphManager;
+        this.concurrencyLimiter = concurrencyLimiter;
         this.catalogueManager = new CatalogueManager(vertx);
         this.datasetManager = new DatasetManager(vertx);
         this.idsService = new IDSService(vertx,tsConnector);
@@ -97,53 +101,32 @@ public class UnregisterController {
 
 
     public void unregister(URI uri, Connector connector, Handler<AsyncResult<HttpEntity>> readyHandler) {
-        java.util.Map<String, Promise> datasetDeletePromises = new HashMap<>();
-
         catalogueManager.getCatalogueByExternalId(connector.getId().toString(), catalogueIdResult -> {
             if (catalogueIdResult.succeeded()) {
                 String cataloguePiveauId = catalogueIdResult.result().getString("internal_id");
                 graphManager.delete(connector.getId().toString(),reply->{});
-                datasetManager.dataAssetIdsOfCatalogue(cataloguePiveauId, piveauDatasetIds -> {
-
-                    resolvePiveauIds(piveauDatasetIds,mapAsyncResult -> {
-                        for (String externalId : mapAsyncResult.result().keySet()){
-                            graphManager.delete(externalId,reply->{});
-                        }});
-
-                    if (piveauDatasetIds.succeeded()) {
-                        if (!piveauDatasetIds.result().isEmpty()) {
-                            for (String id : piveauDatasetIds.result()) {
-                                Promise datasetDeletePromise = Promise.promise();
-                                datasetDeletePromises.put(id, datasetDeletePromise);
-                                deleteDatasetPiveau(id, cataloguePiveauId, next -> datasetManager.deleteByInternalId(id, result -> handleDataSetFuture(result, id, datasetDeletePromises)));
-                            }
+                datasetManager.findByCatalogue(cataloguePiveauId, mapAsyncResult -> {
+                    if (mapAsyncResult.succeeded()) {
+                        java.util.Map<String, JsonObject> piveauIds = mapAsyncResult.result();
+                        Set<String> deletedDatasets = new HashSet<>();
+                        List<Future> datasetDeleteFutures = new ArrayList<>();
+                        for (java.util.Map.Entry<String, JsonObject> dataset : piveauIds.entrySet()) {
+                            Promise<Void> datasetDeletePromise = Promise.promise();
+                            concurrencyLimiter.execute(promise -> deleteDataset(dataset.getKey(), dataset.getValue().getString("internal_id"), cataloguePiveauId, deletedDatasets, promise), datasetDeletePromise);
+                            datasetDeleteFutures.add(datasetDeletePromise.future());
                         }
-                        for (Resource dataasset : connector.getCatalog().getOffer()) {
-                            Promise datasetDeleteFuture = Promise.promise();
-                            datasetDeletePromises.put(dataasset.getId().toString(), datasetDeleteFuture);
-                            datasetManager.findByExternalId(dataasset.getId().toString(), datasetIdreply -> {
-                                if (datasetIdreply.succeeded()) {
-                                    if (!datasetIdreply.result().isEmpty()) {
-                                        String datasetPiveauId = datasetIdreply.result().getString("internal_id");
-                                        String datasetId = datasetIdreply.result().getString("external_id");
-                                        if(!datasetDeletePromises.keySet().contains(datasetPiveauId)) {
-                                            deleteDatasetPiveau(datasetPiveauId, cataloguePiveauId, externalDeleteReply ->
-                                                    deleteDatasetInternal(externalDeleteReply, datasetPiveauId, datasetId, datasetDeletePromises));
-                                        } else {
-                                            datasetDeleteFuture.complete();
-                                        }
-                                    } else {
-                                        datasetDeleteFuture.complete();
-                                    }
-                                } else {
-                                    LOGGER.error(datasetIdreply.cause());
-                                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                        if (connector.getCatalog() != null) {
+                            for (Resource dataasset : connector.getCatalog().getOffer()) {
+                                if (!piveauIds.containsKey(dataasset.getId().toString())) {
+                                    Promise<Void> datasetDeletePromise = Promise.promise();
+                                    concurrencyLimiter.execute(promise -> deleteRegisteredDataset(dataasset.getId().toString(), cataloguePiveauId, deletedDatasets, promise), datasetDeletePromise);
+                                    datasetDeleteFutures.add(datasetDeletePromise.future());
                                 }
-                            });
+                            }
                         }
-                        handleCatalogue(uri, new ArrayList<>(datasetDeletePromises.values()), cataloguePiveauId, readyHandler);
+                        handleCatalogue(uri, datasetDeleteFutures, deletedDatasets, cataloguePiveauId, readyHandler);
                     } else {
-                        LOGGER.error(piveauDatasetIds.cause());
+                        LOGGER.error(mapAsyncResult.cause());
                         idsService.handleRejectionMessage(RejectionReason.NOT_FOUND, uri, readyHandler);
                     }
                 });
@@ -153,30 +136,55 @@ public class UnregisterController {
         });
     }
 
-    private void handleCatalogue(URI uri, java.util.List<Promise> datasetDeletePromises, String catalogueIdResult, Handler<AsyncResult<HttpEntity>> readyHandler) {
-        CompositeFuture.all(datasetDeletePromises.stream().map(Promise::future).collect(Collectors.toList())).setHandler(reply -> {
-            if (reply.succeeded()) {
-                deleteCatalogueExternal(reply, catalogueIdResult, externalCatalogueDeleteReply ->
-                        deleteCatalogueInternal(uri, externalCatalogueDeleteReply, catalogueIdResult, readyHandler));
+    private void deleteDataset(String datasetIDSId, String datasetPiveauId, String catalogueId, Set<String> deletedDatasets, Promise<Void> datasetDeletePromise) {
+        graphManager.delete(datasetIDSId, reply -> {});
+        deleteDatasetPiveau(datasetPiveauId, catalogueId, next -> {
+            deletedDatasets.add(datasetPiveauId);
+            datasetDeletePromise.complete();
+        });
+    }
+
+    /**
+     * Deletes a dataset of the connector which is known to the internal database but not listed in its piveau catalogue.
+     */
+    private void deleteRegisteredDataset(String datasetIDSId, String catalogueId, Set<String> deletedDatasets, Promise<Void> datasetDeletePromise) {
+        datasetManager.findByExternalId(datasetIDSId, datasetIdreply -> {
+            if (datasetIdreply.succeeded()) {
+                String datasetPiveauId = datasetIdreply.result().getString("internal_id");
+                graphManager.delete(datasetIDSId, reply -> {});
+                deleteDatasetPiveau(datasetPiveauId, catalogueId, externalDeleteReply -> {
+                    if (externalDeleteReply.succeeded()) {
+                        deletedDatasets.add(datasetPiveauId);
+                        datasetDeletePromise.complete();
+                    } else {
+                        datasetDeletePromise.fail(externalDeleteReply.cause());
+                    }
+                });
+            } else if (datasetIdreply.cause() == null) {
+                datasetDeletePromise.complete();
             } else {
-                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                LOGGER.error(datasetIdreply.cause());
+                datasetDeletePromise.fail(datasetIdreply.cause());
             }
         });
     }
 
-    private void deleteDatasetInternal(AsyncResult<Void> reply, String datasetPiveauId, String datasetIDSId, java.util.Map<String, Promise> datasetDeletePromises) {
-        if (reply.succeeded()) {
-            datasetManager.deleteByInternalId(datasetPiveauId, internalDatasetDeleteResult -> {
-                if (reply.succeeded()) {
-                    datasetDeletePromises.get(datasetIDSId).complete();
+    /**
+     * Waits for all dataset deletions, removes the mappings of the deleted datasets with one batch update
+     * and deletes the catalogue afterwards.
+     */
+    private void handleCatalogue(URI uri, List<Future> datasetDeleteFutures, Set<String> deletedDatasets, String catalogueIdResult, Handler<AsyncResult<HttpEntity>> readyHandler) {
+        CompositeFuture.join(datasetDeleteFutures).setHandler(reply ->
+            datasetManager.deleteAll(deletedDatasets, internalDatasetDeleteResult -> {
+                if (reply.succeeded() && internalDatasetDeleteResult.succeeded()) {
+                    LOGGER.info("DataAssets From Database successfully deleted");
+                    deleteCatalogueExternal(reply, catalogueIdResult, externalCatalogueDeleteReply ->
+                            deleteCatalogueInternal(uri, externalCatalogueDeleteReply, catalogueIdResult, readyHandler));
                 } else {
-                    datasetDeletePromises.get(datasetIDSId).fail(reply.cause());
-                    LOGGER.error(reply.cause());
+                    LOGGER.error(reply.failed() ? reply.cause() : internalDatasetDeleteResult.cause());
+                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
                 }
-            });
-        } else {
-            datasetDeletePromises.get(datasetPiveauId).fail(reply.cause());
-        }
+            }));
     }
 
     private void deleteCatalogueExternal(AsyncResult<CompositeFuture> reply, String catalogueInternalId, Handler<AsyncResult> next) {
@@ -220,38 +228,4 @@ public class UnregisterController {
             }
         });
     }
-
-    private void handleDataSetFuture(AsyncResult<Void> reply, String idsId, java.util.Map<String, Promise> datasetdeletePromises) {
-        if (reply.succeeded()) {
-            datasetdeletePromises.get(idsId).complete();
-            LOGGER.info("DataAsset From Database successfully deleted");
-        } else {
-            LOGGER.error(reply.cause());
-            datasetdeletePromises.get(idsId).fail(reply.cause());
-        }
-    }
-
-    private void resolvePiveauIds(AsyncResult<java.util.List<String>> piveauDatasetIds, Handler<AsyncResult<java.util.Map<String, String>>> completer) {
-        java.util.Map<String, Promise<JsonObject>> piveau2IDSResolvePromiseMap = new HashMap<>();
-        if (piveauDatasetIds.succeeded()) {
-            for (String piveauId : piveauDatasetIds.result()) {
-                Promise<JsonObject> idsResolve = Promise.promise();
-                piveau2IDSResolvePromiseMap.put(piveauId, idsResolve);
-                datasetManager.findByInternalId(piveauId, idsResolve);
-            }
-            CompositeFuture.all(piveau2IDSResolvePromiseMap.values().stream().map(Promise::future).collect(Collectors.toList())).setHandler(ac -> {
-                if (ac.succeeded()) {
-                    java.util.Map<String, String> resultMap = new HashMap<>();
-                    for (String piveauId : piveau2IDSResolvePromiseMap.keySet()) {
-                        resultMap.put(piveau2IDSResolvePromiseMap.get(piveauId).future().result().getString("external_id"), piveauId);
-                    }
-                    completer.handle(Future.succeededFuture(resultMap));
-                } else {
-                    completer.handle(Future.failedFuture(ac.cause()));
-                }
-            });
-        } else {
-            completer.handle(Future.failedFuture(piveauDatasetIds.cause()));
-        }
-    }
 }
@@ -6,22 +6,24 @@ import de.fraunhofer.fokus.ids.manager.GraphManager;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageService;
 import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformerService;
+import de.fraunhofer.fokus.ids.utils.ConcurrencyLimiter;
+import de.fraunhofer.fokus.ids.utils.ContentFingerprint;
 import de.fraunhofer.fokus.ids.utils.TSConnector;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
 import io.vertx.core.*;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.HttpResponse;
 import org.apache.http.HttpEntity;
 
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class UpdateController {
     private Logger LOGGER = LoggerFactory.getLogger(UpdateController.class.getName());
@@ -32,10 +34,12 @@ public class UpdateController {
     private IDSService idsService;
     private PiveauMessageService piveauMessageService;
     private DCATTransformerService dcatTransformerService;
+    private ConcurrencyLimiter concurrencyLimiter;
     private Serializer serializer = new Serializer();
 
-    public UpdateController(Vertx vertx, GraphManager graphManager, TSConnector tsConnector){
+    public UpdateController(Vertx vertx, GraphManager graphManager, TSConnector tsConnector, ConcurrencyLimiter concurrencyLimiter){
         this.graphManager = graphManager;
+        this.concurrencyLimiter = concurrencyLimiter;
         this.catalogueManager = new CatalogueManager(vertx);
         this.datasetManager = new DatasetManager(vertx);
         this.idsService = new IDSService(vertx,tsConnector);
@@ -68,7 +72,8 @@ public class UpdateController {
                                                         resolveDatasetIdForUpdate(resource.getId().toString(), reply -> {
                                                             piveauMessageService.createDataSet(datasetTransformResult.result(), reply.result(), cataloguePiveauId, datasetReply -> {
                                                                 if (datasetReply.succeeded()) {
-                                                                    idsService.handleSucceededMessage(uri, readyHandler);
+                                                                    datasetManager.updateContentHash(resource.getId().toString(), null, hashReply ->
+                                                                            idsService.handleSucceededMessage(uri, readyHandler));
                                                                 } else {
                                                                     LOGGER.error(datasetReply.cause());
                                                                     idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
@@ -88,7 +93,7 @@ public class UpdateController {
                                             datasetGraphCreation(resource,readyHandler);
                                             piveauMessageService.createDataSet(datasetTransformResult.result(), internalId, cataloguePiveauId, datasetReply -> {
                                                 if (datasetReply.succeeded()) {
-                                                    datasetManager.create(resource.getId().toString(), internalId, datasetPersistenceReply2 -> {
+                                                    datasetManager.create(resource.getId().toString(), internalId, cataloguePiveauId, null, datasetPersistenceReply2 -> {
                                                         if (datasetPersistenceReply2.succeeded()) {
                                                             idsService.handleSucceededMessage(uri, readyHandler);
                                                         } else {
@@ -175,112 +180,148 @@ public class UpdateController {
             readyHandler.handle(Future.failedFuture(e));
         }
     }
+    /**
+     * Brings the datasets of a catalogue in line with the offers of the connector.
+     * Offers whose fingerprint equals the one stored with their mapping are unchanged and skipped.
+     */
     private void updateDatasets(Connector connector, URI uri, String catalogueId, Handler<AsyncResult<HttpEntity>> readyHandler) {
-        datasetManager.dataAssetIdsOfCatalogue(catalogueId, piveauDatasetIds ->
-                resolvePiveauIds(piveauDatasetIds, result -> {
+        datasetManager.findByCatalogue(catalogueId, result -> {
             if (result.succeeded()) {
-                java.util.Map<String, Promise> datasetUpdatePromises = new HashMap<>();
-                Set<String> availableDatasetIds = new HashSet(result.result().keySet());
-
-                for (String id :availableDatasetIds) {
-                    graphManager.delete(id, r -> {
-                        if(r.failed()){
-                            LOGGER.info("Deletion of dataset graph failed.");
-                        }
-                    });
+                java.util.Map<String, JsonObject> piveauIds = result.result();
+                Map<String, Resource> id2ResourceMap = new LinkedHashMap<>();
+                if (connector.getCatalog() != null) {
+                    for (Resource dataset : connector.getCatalog().getOffer()) {
+                        id2ResourceMap.put(dataset.getId().toString(), dataset);
+                    }
                 }
-                Set<String> messageDatasetIds = connector.getCatalog().getOffer().stream().map(r -> r.getId().toString()).collect(Collectors.toSet());
-                Map<String, Resource> id2ResourceMap = new HashMap<>();
 
-                for(String id : messageDatasetIds){
-                    Resource dataset = connector.getCatalog().getOffer().stream().filter(r -> r.getId().toString().equals(id)).collect(Collectors.toList()).get(0);
-                    id2ResourceMap.put(id, dataset);
-                    datasetGraphCreation(dataset,readyHandler);
-                    availableDatasetIds.add(id);
+                JsonObject statistics = new JsonObject().put("created", 0).put("updated", 0).put("deleted", 0).put("skipped", 0);
+                List<Future> datasetFutures = new ArrayList<>();
+                for (Map.Entry<String, Resource> dataset : id2ResourceMap.entrySet()) {
+                    Promise<Void> datasetPromise = Promise.promise();
+                    concurrencyLimiter.execute(promise -> updateDataset(dataset.getValue(), piveauIds.get(dataset.getKey()), catalogueId, statistics, promise), datasetPromise);
+                    datasetFutures.add(datasetPromise.future());
                 }
-                for (String datasetId : availableDatasetIds) {
-                    datasetUpdatePromises.put(datasetId, Promise.promise());
+                for (Map.Entry<String, JsonObject> orphan : piveauIds.entrySet()) {
+                    if (!id2ResourceMap.containsKey(orphan.getKey())) {
+                        Promise<Void> datasetPromise = Promise.promise();
+                        concurrencyLimiter.execute(promise -> deleteOrphan(orphan.getKey(), orphan.getValue().getString("internal_id"), catalogueId, promise), datasetPromise);
+                        datasetFutures.add(datasetPromise.future());
+                        count(statistics, "deleted");
+                    }
                 }
 
-                Collection<String> piveauIds = result.result().keySet();
-                if (piveauIds.isEmpty() && messageDatasetIds.isEmpty()) {
-                    idsService.handleSucceededMessage(uri, readyHandler);
-                } else {
-                    for (String messageId : messageDatasetIds) {
-                        Resource dataset = id2ResourceMap.get(messageId);
-                        try {
-                            dcatTransformerService.transformDataset(serializer.serialize(dataset), ((StaticEndpoint)dataset.getResourceEndpoint().get(0)).getEndpointArtifact().getCreationDate().toString(), datasetTransformResult -> {
-                                if(datasetTransformResult.succeeded()) {
-                                    if (piveauIds.contains(messageId)) {
-                                        updateDataset(datasetTransformResult.result(), messageId, catalogueId, datasetUpdatePromises);
-                                    } else {
-                                        String internalId = UUID.randomUUID().toString();
-                                        createDataSet(datasetTransformResult.result(), messageId, internalId, catalogueId, datasetUpdatePromises);
-                                    }
-                                    piveauIds.remove(messageId);
-                                } else {
-                                    LOGGER.error(datasetTransformResult.cause());
-                                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                                }
-                            });
-                        } catch (IOException e) {
-                            LOGGER.error(e);
-                            readyHandler.handle(Future.failedFuture(e));
-                        }
+                CompositeFuture.all(datasetFutures).setHandler(ac -> {
+                    if (ac.succeeded()) {
+                        LOGGER.info("Datasets of catalogue " + catalogueId + " updated: " + statistics.encode());
+                        idsService.handleSucceededMessage(uri, statistics, readyHandler);
+                    } else {
+                        LOGGER.error(ac.cause());
+                        idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
                     }
-                    CompositeFuture.all(messageDatasetIds.stream().map(datasetUpdatePromises::get).map(Promise::future).collect(Collectors.toList())).setHandler(mesFutures -> {
-                        if(mesFutures.succeeded()) {
-                            for (String orphan : piveauIds) {
-                                deleteDatasetPiveau(result.result().get(orphan), catalogueId, res -> datasetManager.deleteByExternalId(orphan, deleteResult -> handleDataSetPromise(deleteResult, orphan, datasetUpdatePromises)));
-                            }
-                        } else {
-                            LOGGER.error(mesFutures.cause());
-                            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                        }
-                    });
-                    CompositeFuture.all(datasetUpdatePromises.values().stream().map(Promise::future).collect(Collectors.toList())).setHandler(ac -> {
-                        if (ac.succeeded()) {
-                            idsService.handleSucceededMessage(uri, readyHandler);
-                        } else {
-                            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                        }
-                    });
-                }
+                });
             } else {
                 idsService.handleRejectionMessage(RejectionReason.NOT_FOUND, uri, readyHandler);
             }
-        }));
+        });
 
     }
 
-    private void createDataSet(String transformedDataset, String datasetExternalId, String dataSetId, String catalogueId, java.util.Map<String, Promise> datasetUpdatePromises) {
+    private void count(JsonObject statistics, String key) {
+        statistics.put(key, statistics.getInteger(key) + 1);
+    }
+
+    /**
+     * Rewrites the graph of a dataset and puts it to piveau if its fingerprint changed. Datasets without mapping are created.
+     * If the graph could not be written, no fingerprint is stored, so that the next update retries the dataset.
+     */
+    private void updateDataset(Resource dataset, JsonObject mapping, String catalogueId, JsonObject statistics, Promise<Void> datasetPromise) {
+        String datasetJson;
+        try {
+            datasetJson = serializer.serialize(dataset);
+        } catch (IOException e) {
+            LOGGER.error(e);
+            datasetPromise.fail(e);
+            return;
+        }
+        String messageId = dataset.getId().toString();
+        String contentHash = ContentFingerprint.of(datasetJson);
+        if (mapping != null && contentHash.equals(mapping.getString("content_hash"))) {
+            count(statistics, "skipped");
+            datasetPromise.complete();
+            return;
+        }
+        String piveauId = mapping != null ? mapping.getString("internal_id") : null;
+        Handler<AsyncResult<HttpResponse<Buffer>>> graphHandler = graphResult -> {
+            if (graphResult.failed()) {
+                LOGGER.error("Creation of dataset graph failed.", graphResult.cause());
+            }
+            String hash = graphResult.succeeded() ? contentHash : null;
+            dcatTransformerService.transformDataset(datasetJson, ((StaticEndpoint)dataset.getResourceEndpoint().get(0)).getEndpointArtifact().getCreationDate().toString(), datasetTransformResult -> {
+                if (datasetTransformResult.succeeded()) {
+                    if (piveauId != null) {
+                        count(statistics, "updated");
+                        updateDataset(datasetTransformResult.result(), messageId, piveauId, catalogueId, hash, datasetPromise);
+                    } else {
+                        count(statistics, "created");
+                        createDataSet(datasetTransformResult.result(), messageId, UUID.randomUUID().toString(), catalogueId, hash, datasetPromise);
+                    }
+                } else {
+                    LOGGER.error(datasetTransformResult.cause());
+                    datasetPromise.fail(datasetTransformResult.cause());
+                }
+            });
+        };
+        if (piveauId != null) {
+            graphManager.update(messageId, datasetJson, graphHandler);
+        } else {
+            graphManager.create(messageId, datasetJson, graphHandler);
+        }
+    }
+
+    private void deleteOrphan(String externalId, String piveauId, String catalogueId, Promise<Void> datasetPromise) {
+        graphManager.delete(externalId, r -> {
+            if (r.failed()) {
+                LOGGER.info("Deletion of dataset graph failed.");
+            }
+        });
+        deleteDatasetPiveau(piveauId, catalogueId, res -> datasetManager.deleteByExternalId(externalId, deleteResult -> handleDataSetPromise(deleteResult, datasetPromise)));
+    }
+
+    private void createDataSet(String transformedDataset, String datasetExternalId, String dataSetId, String catalogueId, String contentHash, Promise<Void> datasetPromise) {
         piveauMessageService.createDataSet(transformedDataset, dataSetId, catalogueId, datasetReply -> {
             if (datasetReply.succeeded()) {
-                datasetManager.create(datasetExternalId, dataSetId, datasetPersistenceReply2 -> {
+                datasetManager.create(datasetExternalId, dataSetId, catalogueId, contentHash, datasetPersistenceReply2 -> {
                     if (datasetPersistenceReply2.succeeded()) {
-                        datasetUpdatePromises.get(datasetExternalId).complete();
+                        datasetPromise.complete();
                     } else {
-                        datasetUpdatePromises.get(datasetExternalId).fail(datasetPersistenceReply2.cause());
+                        datasetPromise.fail(datasetPersistenceReply2.cause());
                     }
                 });
             } else {
                 LOGGER.error(datasetReply.cause());
+                datasetPromise.fail(datasetReply.cause());
             }
         });
     }
 
-    private void updateDataset(String datasetTTL, String messageId, String catalogueId, java.util.Map<String, Promise> datasetUpdatePromises) {
-        resolveDatasetIdForUpdate(messageId, reply -> {
-            piveauMessageService.createDataSet(datasetTTL, reply.result(), catalogueId, datasetReply -> {
-                if (datasetReply.succeeded()) {
-                    datasetUpdatePromises.get(messageId).complete();
-                } else {
-                    LOGGER.error(datasetReply.cause());
-                    datasetUpdatePromises.get(messageId).fail(datasetReply.cause());
-                }
-            });
+    private void updateDataset(String datasetTTL, String datasetExternalId, String piveauId, String catalogueId, String contentHash, Promise<Void> datasetPromise) {
+        piveauMessageService.createDataSet(datasetTTL, piveauId, catalogueId, datasetReply -> {
+            if (datasetReply.succeeded()) {
+                datasetManager.updateContentHash(datasetExternalId, contentHash, hashReply -> {
+                    if (hashReply.succeeded()) {
+                        datasetPromise.complete();
+                    } else {
+                        datasetPromise.fail(hashReply.cause());
+                    }
+                });
+            } else {
+                LOGGER.error(datasetReply.cause());
+                datasetPromise.fail(datasetReply.cause());
+            }
         });
     }
+
     private void deleteDatasetPiveau(String datasetId, String catalogueId, Handler<AsyncResult<Void>> next) {
         piveauMessageService.deleteDataSet(datasetId, catalogueId, deleteAsset -> {
             if (deleteAsset.succeeded()) {
@@ -292,37 +333,13 @@ public class UpdateController {
         });
     }
 
-    private void handleDataSetPromise(AsyncResult<Void> reply, String idsId, java.util.Map<String, Promise> datasetdeletePromises) {
+    private void handleDataSetPromise(AsyncResult<Void> reply, Promise<Void> datasetPromise) {
         if (reply.succeeded()) {
-            datasetdeletePromises.get(idsId).complete();
+            datasetPromise.complete();
             LOGGER.info("DataAsset From Database successfully deleted");
         } else {
             LOGGER.error(reply.cause());
-            datasetdeletePromises.get(idsId).fail(reply.cause());
-        }
-    }
-
-    private void resolvePiveauIds(AsyncResult<java.util.List<String>> piveauDatasetIds, Handler<AsyncResult<java.util.Map<String, String>>> completer) {
-        java.util.Map<String, Promise<JsonObject>> piveau2IDSResolvePromiseMap = new HashMap<>();
-        if (piveauDatasetIds.succeeded()) {
-            for (String piveauId : piveauDatasetIds.result()) {
-                Promise<JsonObject> idsResolve = Promise.promise();
-                piveau2IDSResolvePromiseMap.put(piveauId, idsResolve);
-                datasetManager.findByInternalId(piveauId, idsResolve);
-            }
-            CompositeFuture.all(piveau2IDSResolvePromiseMap.values().stream().map(Promise::future).collect(Collectors.toList())).setHandler(ac -> {
-                if (ac.succeeded()) {
-                    java.util.Map<String, String> resultMap = new HashMap<>();
-                    for (String piveauId : piveau2IDSResolvePromiseMap.keySet()) {
-                        resultMap.put(piveau2IDSResolvePromiseMap.get(piveauId).future().result().getString("external_id"), piveauId);
-                    }
-                    completer.handle(Future.succeededFuture(resultMap));
-                } else {
-                    completer.handle(Future.failedFuture(ac.cause()));
-                }
-            });
-        } else {
-            completer.handle(Future.failedFuture(piveauDatasetIds.cause()));
+            datasetPromise.fail(reply.cause());
         }
     }
 
@@ -1,41 +1,47 @@
 package de.fraunhofer.fokus.ids.main;
 
 import de.fraunhofer.fokus.ids.controller.*;
+import de.fraunhofer.fokus.ids.manager.DatasetManager;
 import de.fraunhofer.fokus.ids.manager.GraphManager;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.services.authService.AuthAdapterServiceVerticle;
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageServiceVerticle;
 import de.fraunhofer.fokus.ids.services.databaseService.DatabaseServiceVerticle;
 import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformerServiceVerticle;
+import de.fraunhofer.fokus.ids.utils.BrokerDescriptionCache;
+import de.fraunhofer.fokus.ids.utils.ConcurrencyLimiter;
+import de.fraunhofer.fokus.ids.utils.ConfigSnapshot;
+import de.fraunhofer.fokus.ids.utils.DatTokenCache;
+import de.fraunhofer.fokus.ids.utils.GraphRenderingCache;
 import de.fraunhofer.fokus.ids.utils.IDSMessageParser;
+import de.fraunhofer.fokus.ids.utils.IdMappingCache;
 import de.fraunhofer.fokus.ids.utils.InitService;
+import de.fraunhofer.fokus.ids.utils.QueryResultCache;
+import de.fraunhofer.fokus.ids.utils.ResponseOutputStream;
 import de.fraunhofer.fokus.ids.utils.TSConnector;
+import de.fraunhofer.fokus.ids.utils.ValidatedTokenCache;
 import de.fraunhofer.fokus.ids.utils.models.IDSMessage;
-import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
 import io.vertx.circuitbreaker.CircuitBreaker;
 import io.vertx.circuitbreaker.CircuitBreakerOptions;
-import io.vertx.config.ConfigRetriever;
-import io.vertx.config.ConfigRetrieverOptions;
-import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.*;
-import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CorsHandler;
-import org.apache.commons.io.IOUtils;
+import io.netty.handler.codec.http.QueryStringEncoder;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
@@ -45,6 +51,7 @@ import java.util.Set;
 
 public class MainVerticle extends AbstractVerticle {
     private Logger LOGGER = LoggerFactory.getLogger(MainVerticle.class.getName());
+    private static final int RESPONSE_CHUNK_SIZE = 64 * 1024;
     private Router router;
     private QueryMessageController queryMessageController;
     private IDSService idsService;
@@ -54,16 +61,11 @@ public class MainVerticle extends AbstractVerticle {
     private UnregisterController unregisterController;
     private Serializer serializer;
     private int servicePort;
-    private AuthAdapterService authAdapterService;
+    private ValidatedTokenCache validatedTokenCache;
 
     @Override
     public void start(Promise<Void> startPromise) {
-        ConfigStoreOptions confStore = new ConfigStoreOptions()
-                .setType("env");
-        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
-        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
-
-        retriever.getConfig(config -> {
+        ConfigSnapshot.load(vertx, config -> {
             if (config.succeeded()){
 
                 DeploymentOptions deploymentOptions = new DeploymentOptions();
@@ -91,30 +93,51 @@ public class MainVerticle extends AbstractVerticle {
                     return authFuture;
                 }).setHandler(ar -> {
                     if (ar.succeeded()) {
-                        Future initFuture = Promise.promise().future();
-                        new InitService(vertx).initDatabase(initFuture);
-                        if (initFuture.succeeded()) {
+                        new InitService(vertx).initDatabase(initFuture -> {
+                            if (initFuture.succeeded()) {
 
-                            this.serializer = new Serializer();
-                            WebClient webClient = WebClient.create(vertx);
-                            CircuitBreaker breaker = CircuitBreaker.create("virtuoso-breaker", vertx, new CircuitBreakerOptions().setMaxRetries(5))
-                                    .retryPolicy(count -> count * 1000L);
-                            this.tsConnector = TSConnector.create(webClient, breaker, config.result().getJsonObject("VIRTUOSO_CONFIG"));
-                            this.queryMessageController = new QueryMessageController(tsConnector, vertx);
-                            GraphManager graphManager = new GraphManager(vertx, tsConnector);
-                            this.updateController = new UpdateController(vertx, graphManager,tsConnector);
-                            this.unregisterController = new UnregisterController(vertx, graphManager,tsConnector);
-                            this.registerController = new RegisterController(vertx,graphManager,tsConnector);
-                            this.servicePort = config.result().getInteger("SERVICE_PORT");
-                            this.idsService = new IDSService(vertx,tsConnector);
-                            this.authAdapterService = AuthAdapterService.createProxy(vertx, AuthAdapterServiceVerticle.ADDRESS);
+                                this.serializer = new Serializer();
+                                WebClient webClient = WebClient.create(vertx);
+                                CircuitBreaker breaker = CircuitBreaker.create("virtuoso-breaker", vertx, new CircuitBreakerOptions().setMaxRetries(5))
+                                        .retryPolicy(count -> count * 1000L);
+                                this.tsConnector = TSConnector.create(webClient, breaker, config.result().getJsonObject("VIRTUOSO_CONFIG"));
+                                // shared caches are configured before the first manager or service picks them up
+                                JsonObject idCacheConfig = config.result().getJsonObject("BROKER_CONFIG").getJsonObject("idCache", new JsonObject());
+                                IdMappingCache.shared(vertx, "catalogues", idCacheConfig);
+                                IdMappingCache.shared(vertx, "datasets", idCacheConfig);
+                                DatTokenCache.shared(vertx, config.result().getJsonObject("BROKER_CONFIG").getJsonObject("datToken", new JsonObject()))
+                                        .getToken(tokenReply -> {});
+                                QueryResultCache.shared(vertx, config.result().getJsonObject("BROKER_CONFIG").getJsonObject("queryCache", new JsonObject()));
+                                GraphRenderingCache.shared(vertx, config.result().getJsonObject("BROKER_CONFIG").getJsonObject("graphCache", new JsonObject()));
+                                this.queryMessageController = new QueryMessageController(tsConnector, vertx);
+                                GraphManager graphManager = new GraphManager(vertx, tsConnector, config.result().getJsonObject("VIRTUOSO_CONFIG"));
+                                ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(vertx, config.result().getJsonObject("BROKER_CONFIG").getInteger("datasetConcurrency", 16),
+                                        config.result().getJsonObject("BROKER_CONFIG").getLong("datasetTaskTimeout", 120000L));
+                                config.result().onChange(newConfig -> concurrencyLimiter.setMaxConcurrency(newConfig.getJsonObject("BROKER_CONFIG").getInteger("datasetConcurrency", 16)));
+                                this.updateController = new UpdateController(vertx, graphManager, tsConnector, concurrencyLimiter);
+                                this.unregisterController = new UnregisterController(vertx, graphManager, tsConnector, concurrencyLimiter);
+                                this.registerController = new RegisterController(vertx, graphManager, tsConnector, concurrencyLimiter);
+                                this.servicePort = config.result().getInteger("SERVICE_PORT");
+                                this.idsService = new IDSService(vertx,tsConnector);
+                                this.validatedTokenCache = ValidatedTokenCache.shared(vertx, config.result().getJsonObject("BROKER_CONFIG").getJsonObject("tokenValidation", new JsonObject()));
 
-                            router = Router.router(vertx);
-                            createHttpServer(vertx);
-                            startPromise.complete();
-                        } else {
-                            startPromise.fail(initFuture.cause());
-                        }
+                                long statisticsInterval = config.result().getJsonObject("BROKER_CONFIG").getLong("statisticsInterval", 60000L);
+                                if (statisticsInterval > 0) {
+                                    vertx.setPeriodic(statisticsInterval, id -> logStatistics());
+                                }
+
+                                router = Router.router(vertx);
+                                createHttpServer(vertx);
+                                startPromise.complete();
+                                new DatasetManager(vertx).reconcileCatalogues(reconcileReply -> {
+                                    if (reconcileReply.failed()) {
+                                        LOGGER.error("Datasets could not be assigned to their catalogues.", reconcileReply.cause());
+                                    }
+                                });
+                            } else {
+                                startPromise.fail(initFuture.cause());
+                            }
+                        });
                     } else {
                         startPromise.fail(ar.cause());
                     }
@@ -154,8 +177,8 @@ public class MainVerticle extends AbstractVerticle {
                 reply -> replyMessage(reply, routingContext.response())));
         router.post("/data").handler(routingContext -> getData(IDSMessageParser.parse(routingContext.request().formAttributes()),
                 reply -> replyMessage(reply, routingContext.response())));
-        router.route("/about").handler(routingContext -> about(reply -> reply(reply, routingContext.response())));
-        router.route("/").handler(routingContext -> about(reply -> reply(reply, routingContext.response())));
+        router.route("/about").handler(this::about);
+        router.route("/").handler(this::about);
         LOGGER.info("Starting odb-manager ");
         server.requestHandler(router).listen(this.servicePort);
         LOGGER.info("odb-manager deployed on port " + this.servicePort);
@@ -173,14 +196,14 @@ public class MainVerticle extends AbstractVerticle {
         } else {
             Message header = idsMessage.getHeader().get();
             URI uri = idsMessage.getHeader().get().getId();
-            authAdapterService.isAuthenticated(header.getSecurityToken().getTokenValue(), authreply -> {
+            validatedTokenCache.isAuthenticated(header.getSecurityToken().getTokenValue(), authreply -> {
                 if (authreply.succeeded()) {
                     try {
                         if (idsMessage.getPayload().isPresent()) {
                             String payload = idsMessage.getPayload().get();
                             if (header instanceof QueryMessage) {
                                 LOGGER.info("QueryMessage received.");
-                                queryMessageController.queryMessage(payload, uri, readyHandler);
+                                queryMessageController.queryMessage(payload, header.getSecurityToken().getTokenValue(), uri, readyHandler);
                             } else {
                                 LOGGER.error(RejectionReason.MESSAGE_TYPE_NOT_SUPPORTED);
                                 idsService.handleRejectionMessage(RejectionReason.MESSAGE_TYPE_NOT_SUPPORTED, uri, readyHandler);
@@ -212,7 +235,7 @@ public class MainVerticle extends AbstractVerticle {
         } else {
             Message header = idsMessage.getHeader().get();
             URI uri = idsMessage.getHeader().get().getId();
-            //authAdapterService.isAuthenticated(header.getSecurityToken().getTokenValue(), authreply -> {
+            //validatedTokenCache.isAuthenticated(header.getSecurityToken().getTokenValue(), authreply -> {
             //    if (authreply.succeeded()) {
                     try {
                         if (header instanceof DescriptionRequestMessage) {
@@ -270,58 +293,93 @@ public class MainVerticle extends AbstractVerticle {
     }
 
 
-    private void about(Handler<AsyncResult<String>> resultHandler) {
-        ConfigStoreOptions confStore = new ConfigStoreOptions()
-                .setType("env");
-
-        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
-
-        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
-
-        retriever.getConfig(config -> {
-            if(config.succeeded()){
-                idsService.buildBroker(config.result().getJsonObject("BROKER_CONFIG"), brokerResult -> {
-                    if (brokerResult.succeeded()) {
-                        try {
-                            resultHandler.handle(Future.succeededFuture(serializer.serialize(brokerResult.result())));
-                        } catch (IOException e) {
-                            LOGGER.error(e);
-                            resultHandler.handle(Future.failedFuture(e));
-                        }
-                    } else {
-                        resultHandler.handle(Future.failedFuture(brokerResult.cause()));
+    /**
+     * Serves the self-description of the broker with its ETag, a matching If-None-Match is answered with 304.
+     * With size and after query parameters a page is served, the next page is linked in a Link header.
+     */
+    private void about(RoutingContext routingContext) {
+        HttpServerResponse response = routingContext.response();
+        JsonObject brokerConfig = ConfigSnapshot.get(vertx).getJsonObject("BROKER_CONFIG");
+        String after = routingContext.request().getParam("after");
+        int pageSize = idsService.getPageSize(brokerConfig, routingContext.request().getParam("size"), after);
+        if (pageSize > 0) {
+            idsService.getBrokerDescriptionPage(brokerConfig, after, pageSize, pageResult -> {
+                if (pageResult.succeeded()) {
+                    if (pageResult.result().getNext() != null) {
+                        QueryStringEncoder nextPage = new QueryStringEncoder(routingContext.request().path());
+                        nextPage.addParam("size", String.valueOf(pageSize));
+                        nextPage.addParam("after", pageResult.result().getNext());
+                        response.putHeader("Link", "<" + nextPage + ">; rel=\"next\"");
                     }
-                });
+                    response.putHeader("content-type", ContentType.APPLICATION_JSON.toString());
+                    response.end(pageResult.result().getBody());
+                } else {
+                    LOGGER.error(pageResult.cause());
+                    response.setStatusCode(500).end();
+                }
+            });
+            return;
+        }
+        idsService.getBrokerDescription(brokerConfig, brokerResult -> {
+            if (brokerResult.succeeded()) {
+                BrokerDescriptionCache.Description description = brokerResult.result();
+                response.putHeader("ETag", description.getEtag());
+                if (description.matches(routingContext.request().getHeader("If-None-Match"))) {
+                    response.setStatusCode(304).end();
+                } else {
+                    response.putHeader("content-type", ContentType.APPLICATION_JSON.toString());
+                    response.end(description.getBody());
+                }
             } else {
-                resultHandler.handle(Future.failedFuture(config.cause()));
+                LOGGER.error(brokerResult.cause());
+                response.setStatusCode(500).end();
             }
         });
     }
 
-    private void reply(AsyncResult result, HttpServerResponse response) {
-        if (result.succeeded() && result.result() != null) {
-            String entity = result.result().toString();
-            if (!response.headWritten()) {
-                response.putHeader("content-type", ContentType.APPLICATION_JSON.toString());
-                response.end(entity);
-            }
-        } else {
-            response.setStatusCode(500).end();
-        }
+    /**
+     * Logs the counters of the caches and of the TSConnector, every BROKER_CONFIG.statisticsInterval milliseconds.
+     */
+    private void logStatistics() {
+        GraphRenderingCache graphCache = GraphRenderingCache.shared(vertx);
+        QueryResultCache queryCache = QueryResultCache.shared(vertx);
+        IdMappingCache catalogueCache = IdMappingCache.shared(vertx, "catalogues");
+        IdMappingCache datasetCache = IdMappingCache.shared(vertx, "datasets");
+        DatTokenCache datTokenCache = DatTokenCache.shared(vertx);
+        JsonObject statistics = new JsonObject()
+                .put("graphCache", new JsonObject().put("hits", graphCache.getHits()).put("misses", graphCache.getMisses())
+                        .put("hitRate", graphCache.getHitRate()).put("evictions", graphCache.getEvictions()).put("bytes", graphCache.getBytes()))
+                .put("queryCache", new JsonObject().put("hits", queryCache.getHits()).put("misses", queryCache.getMisses())
+                        .put("evictions", queryCache.getEvictions()).put("bytes", queryCache.getBytes()))
+                .put("catalogueCache", new JsonObject().put("hits", catalogueCache.getHits()).put("misses", catalogueCache.getMisses())
+                        .put("evictions", catalogueCache.getEvictions()).put("size", catalogueCache.getSize()))
+                .put("datasetCache", new JsonObject().put("hits", datasetCache.getHits()).put("misses", datasetCache.getMisses())
+                        .put("evictions", datasetCache.getEvictions()).put("size", datasetCache.getSize()))
+                .put("tokenValidation", new JsonObject().put("hits", validatedTokenCache.getHits()).put("misses", validatedTokenCache.getMisses())
+                        .put("size", validatedTokenCache.getSize()))
+                .put("datToken", new JsonObject().put("refreshes", datTokenCache.getRefreshes()).put("refreshFailures", datTokenCache.getRefreshFailures())
+                        .put("lastRefreshLatency", datTokenCache.getLastRefreshLatency()).put("tokenAge", datTokenCache.getTokenAge()))
+                .put("triplestore", new JsonObject().put("challengeRoundTrips", tsConnector.getChallengeRoundTrips())
+                        .put("coalescedCallers", tsConnector.getCoalescedCallers()));
+        LOGGER.info("Statistics: " + statistics.encode());
     }
 
     private void replyMessage(AsyncResult<HttpEntity> result, HttpServerResponse response) {
         if (result.succeeded() && result.result() != null) {
             if (!response.headWritten()) {
-                try(ByteArrayOutputStream baos = new ByteArrayOutputStream()){
-                    Header contentTypeHeader =  result.result().getContentType();
-                    IOUtils.copy(result.result().getContent(), baos);
-                    response.putHeader(contentTypeHeader.getName(), contentTypeHeader.getValue());
-                    response.end(Buffer.buffer(baos.toByteArray()));
+                Header contentTypeHeader =  result.result().getContentType();
+                response.putHeader(contentTypeHeader.getName(), contentTypeHeader.getValue());
+                ResponseOutputStream out = new ResponseOutputStream(response, RESPONSE_CHUNK_SIZE);
+                try {
+                    result.result().writeTo(out);
+                    out.close();
                 } catch (IOException e) {
                     LOGGER.error(e);
-                    response.setStatusCode(500);
-                    response.end();
+                    if (response.headWritten()) {
+                        response.reset();
+                    } else {
+                        response.setStatusCode(500).end();
+                    }
                 }
             }
         } else {
@@ -1,6 +1,8 @@
 package de.fraunhofer.fokus.ids.manager;
 
 import de.fraunhofer.fokus.ids.services.databaseService.DatabaseService;
+import de.fraunhofer.fokus.ids.utils.BrokerDescriptionCache;
+import de.fraunhofer.fokus.ids.utils.IdMappingCache;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -14,16 +16,25 @@ import java.util.List;
 
 public class CatalogueManager {
     private DatabaseService databaseService;
+    private IdMappingCache cache;
+    private IdMappingCache datasetCache;
+    private BrokerDescriptionCache brokerDescriptionCache;
     private final Logger LOGGER = LoggerFactory.getLogger(CatalogueManager.class.getName());
 
     private final static String FIND_CATALOGUES = "SELECT * FROM catalogues";
-    private final static String INSERT_CAT_STATEMENT = "INSERT INTO catalogues (created_at, updated_at, external_id, internal_id) values (NOW(),NOW(),?,?)";
+    private final static String FIND_FIRST_CATALOGUE_PAGE = "SELECT external_id FROM catalogues ORDER BY external_id_hash LIMIT ?";
+    private final static String FIND_CATALOGUE_PAGE = "SELECT external_id FROM catalogues WHERE external_id_hash > md5(?) ORDER BY external_id_hash LIMIT ?";
+    private final static String INSERT_CAT_STATEMENT = "INSERT INTO catalogues (created_at, updated_at, external_id, internal_id, external_id_hash) values (NOW(),NOW(),?,?,md5(?)) "
+            + "ON CONFLICT (external_id_hash) DO UPDATE SET internal_id = EXCLUDED.internal_id, updated_at = NOW()";
     private final static String DELETE_CAT_STATEMENT = "DELETE FROM catalogues WHERE internal_id = ?";
-    private final static String SELECT_CAT_STATEMENT = "SELECT * FROM catalogues WHERE external_id=?";
+    private final static String SELECT_CAT_STATEMENT = "SELECT * FROM catalogues WHERE external_id_hash = md5(?) AND external_id = ?";
 
 
     public CatalogueManager(Vertx vertx) {
         this.databaseService = DatabaseService.createProxy(vertx, "databaseService");
+        this.cache = IdMappingCache.shared(vertx, "catalogues");
+        this.datasetCache = IdMappingCache.shared(vertx, "datasets");
+        this.brokerDescriptionCache = BrokerDescriptionCache.shared(vertx);
     }
 
     public void find(Handler<AsyncResult<List<JsonObject>>> resultHandler) {
@@ -38,11 +49,42 @@ public class CatalogueManager {
         });
     }
 
+    /**
+     * Reads one page of catalogues in keyset order of external_id_hash, so that every page is an index range scan.
+     * @param afterExternalId external id of the last catalogue of the previous page, null for the first page
+     */
+    public void findPage(String afterExternalId, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        String query = afterExternalId == null ? FIND_FIRST_CATALOGUE_PAGE : FIND_CATALOGUE_PAGE;
+        JsonArray params = afterExternalId == null ? new JsonArray().add(limit) : new JsonArray().add(afterExternalId).add(limit);
+        databaseService.query(query, params, catalogues -> {
+            if (catalogues.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(catalogues.result()));
+            } else {
+                LOGGER.error(catalogues.cause());
+                resultHandler.handle(Future.failedFuture(catalogues.cause()));
+            }
+        });
+    }
+
     public void getCatalogueByExternalId(String externalId, Handler<AsyncResult<JsonObject>> resultHandler) {
-        databaseService.query(SELECT_CAT_STATEMENT, new JsonArray().add(externalId), catalogues -> {
+        IdMappingCache.Entry entry = cache.getByExternalId(externalId);
+        if (entry != null) {
+            if (entry.getRow() != null) {
+                resultHandler.handle(Future.succeededFuture(entry.getRow()));
+            } else {
+                resultHandler.handle(Future.failedFuture((Throwable) null));
+            }
+            return;
+        }
+        long generation = cache.getGeneration();
+        databaseService.query(SELECT_CAT_STATEMENT, new JsonArray().add(externalId).add(externalId), catalogues -> {
             if (catalogues.succeeded() && !catalogues.result().isEmpty()) {
+                cache.put(catalogues.result().get(0), generation);
                 resultHandler.handle(Future.succeededFuture(catalogues.result().get(0)));
             } else {
+                if (catalogues.succeeded()) {
+                    cache.putMissingExternalId(externalId, generation);
+                }
                 if(catalogues.cause() == null) {
                     LOGGER.error(catalogues.cause());
                 }
@@ -53,6 +95,9 @@ public class CatalogueManager {
 
     public void deleteByInternalId(String catalogueInternalId, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
         databaseService.update(DELETE_CAT_STATEMENT, new JsonArray().add(catalogueInternalId), deleteCatalogueReply -> {
+            cache.invalidateInternalId(catalogueInternalId);
+            datasetCache.invalidateAll();
+            brokerDescriptionCache.invalidate();
             if (deleteCatalogueReply.succeeded()) {
                 LOGGER.info("Catalogue From Database successfully deleted");
                 resultHandler.handle(Future.succeededFuture(deleteCatalogueReply.result()));
@@ -62,8 +107,14 @@ public class CatalogueManager {
         });
     }
 
-    public void create(String internalId, String externalId, Handler<AsyncResult<Void>> resultHandler){
-        databaseService.update(INSERT_CAT_STATEMENT, new JsonArray().add(internalId).add(externalId), reply -> {
+    /**
+     * Inserts the mapping of a catalogue or replaces the internal id if the external id is already mapped.
+     */
+    public void create(String externalId, String internalId, Handler<AsyncResult<Void>> resultHandler){
+        databaseService.update(INSERT_CAT_STATEMENT, new JsonArray().add(externalId).add(internalId).add(externalId), reply -> {
+            cache.invalidateExternalId(externalId);
+            cache.invalidateInternalId(internalId);
+            brokerDescriptionCache.invalidate();
             if (reply.succeeded()) {
                 resultHandler.handle(Future.succeededFuture());
             } else {
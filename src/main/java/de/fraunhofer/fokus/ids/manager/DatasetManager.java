@@ -2,6 +2,7 @@ package de.fraunhofer.fokus.ids.manager;
 
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageService;
 import de.fraunhofer.fokus.ids.services.databaseService.DatabaseService;
+import de.fraunhofer.fokus.ids.utils.IdMappingCache;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -12,26 +13,41 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 public class DatasetManager {
     private DatabaseService databaseService;
     private PiveauMessageService piveauMessageService;
+    private IdMappingCache cache;
     private final Logger LOGGER = LoggerFactory.getLogger(DatasetManager.class.getName());
 
-    private final static String SELECT_DS_STATEMENT = "SELECT * FROM datasets WHERE external_id=?";
+    private final static String SELECT_DS_STATEMENT = "SELECT * FROM datasets WHERE external_id_hash = md5(?) AND external_id = ?";
     private final static String RESOLVE_DS_STATEMENT = "SELECT * FROM datasets WHERE internal_id=?";
     private static final String DELETE_DS_UPDATE = "DELETE FROM datasets WHERE internal_id = ?";
-    private static final String DELETE_DS_EXTERNAL_UPDATE = "DELETE FROM datasets WHERE external_id = ?";
-    private final static String INSERT_DS_STATEMENT = "INSERT INTO datasets (created_at, updated_at, external_id, internal_id) values (NOW(),NOW(),?,?)";
+    private static final String DELETE_DS_BATCH_UPDATE = "DELETE FROM datasets WHERE internal_id IN (?)";
+    private static final String DELETE_DS_EXTERNAL_UPDATE = "DELETE FROM datasets WHERE external_id_hash = md5(?) AND external_id = ?";
+    private final static String SELECT_CATALOGUE_DS_STATEMENT = "SELECT external_id, internal_id, content_hash FROM datasets WHERE catalogue_internal_id = ?";
+    private final static String COUNT_UNASSIGNED_DS_STATEMENT = "SELECT COUNT(*) AS count FROM datasets WHERE catalogue_internal_id IS NULL";
+    private final static String SELECT_CAT_IDS_STATEMENT = "SELECT internal_id FROM catalogues";
+    private final static String ASSIGN_DS_UPDATE = "UPDATE datasets SET catalogue_internal_id = ? WHERE internal_id = ? AND catalogue_internal_id IS NULL";
+    private final static String INSERT_DS_STATEMENT = "INSERT INTO datasets (created_at, updated_at, external_id, internal_id, external_id_hash, catalogue_internal_id, content_hash) values (NOW(),NOW(),?,?,md5(?),?,?) "
+            + "ON CONFLICT (external_id_hash) DO UPDATE SET internal_id = EXCLUDED.internal_id, catalogue_internal_id = EXCLUDED.catalogue_internal_id, content_hash = EXCLUDED.content_hash, updated_at = NOW()";
+    private final static String UPDATE_DS_CONTENT_HASH_UPDATE = "UPDATE datasets SET content_hash = ?, updated_at = NOW() WHERE external_id_hash = md5(?) AND external_id = ?";
 
     public DatasetManager(Vertx vertx) {
         this.databaseService = DatabaseService.createProxy(vertx, "databaseService");
         this.piveauMessageService = PiveauMessageService.createProxy(vertx, "piveauMessageService");
+        this.cache = IdMappingCache.shared(vertx, "datasets");
     }
 
     public void deleteByInternalId(String internalId, Handler<AsyncResult> resultHandler) {
         databaseService.update(DELETE_DS_UPDATE, new JsonArray().add(internalId), reply -> {
+            cache.invalidateInternalId(internalId);
+            cache.invalidateGroups();
             if (reply.succeeded()) {
                 resultHandler.handle(Future.succeededFuture());
             } else {
@@ -42,7 +58,9 @@ public class DatasetManager {
     }
 
     public void deleteByExternalId(String externalId, Handler<AsyncResult> resultHandler) {
-        databaseService.update(DELETE_DS_EXTERNAL_UPDATE, new JsonArray().add(externalId), reply -> {
+        databaseService.update(DELETE_DS_EXTERNAL_UPDATE, new JsonArray().add(externalId).add(externalId), reply -> {
+            cache.invalidateExternalId(externalId);
+            cache.invalidateGroups();
             if (reply.succeeded()) {
                 resultHandler.handle(Future.succeededFuture());
             } else {
@@ -53,17 +71,58 @@ public class DatasetManager {
     }
 
     public void findByInternalId(String internalId, Handler<AsyncResult<JsonObject>> resultHandler) {
-        query(RESOLVE_DS_STATEMENT, new JsonArray().add(internalId), resultHandler);
+        IdMappingCache.Entry entry = cache.getByInternalId(internalId);
+        if (entry != null) {
+            handleCacheEntry(entry, resultHandler);
+        } else {
+            query(RESOLVE_DS_STATEMENT, new JsonArray().add(internalId), generation -> cache.putMissingInternalId(internalId, generation), resultHandler);
+        }
     }
 
     public void findByExternalId(String externalId, Handler<AsyncResult<JsonObject>> resultHandler) {
-        query(SELECT_DS_STATEMENT, new JsonArray().add(externalId), resultHandler);
+        IdMappingCache.Entry entry = cache.getByExternalId(externalId);
+        if (entry != null) {
+            handleCacheEntry(entry, resultHandler);
+        } else {
+            query(SELECT_DS_STATEMENT, new JsonArray().add(externalId).add(externalId), generation -> cache.putMissingExternalId(externalId, generation), resultHandler);
+        }
     }
 
-    private void query(String query, JsonArray array, Handler<AsyncResult<JsonObject>> resultHandler){
+    private void handleCacheEntry(IdMappingCache.Entry entry, Handler<AsyncResult<JsonObject>> resultHandler) {
+        if (entry.getRow() != null) {
+            resultHandler.handle(Future.succeededFuture(entry.getRow()));
+        } else {
+            resultHandler.handle(Future.failedFuture((Throwable) null));
+        }
+    }
+
+    private void query(String query, JsonArray array, LongConsumer missingHandler, Handler<AsyncResult<JsonObject>> resultHandler){
+        long generation = cache.getGeneration();
         databaseService.query(query, array, reply -> {
             if (reply.succeeded() && !reply.result().isEmpty()) {
+                cache.put(reply.result().get(0), generation);
                 resultHandler.handle(Future.succeededFuture(reply.result().get(0)));
+            } else {
+                if (reply.succeeded()) {
+                    missingHandler.accept(generation);
+                }
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+                LOGGER.error(reply.cause());
+            }
+        });
+    }
+
+    /**
+     * Inserts the mapping of a dataset or replaces the internal id if the external id is already mapped.
+     * @param contentHash fingerprint of the dataset as stored in piveau, may be null
+     */
+    public void create(String externalId, String internalId, String catalogueInternalId, String contentHash, Handler<AsyncResult<Void>> resultHandler){
+        databaseService.update(INSERT_DS_STATEMENT, new JsonArray().add(externalId).add(internalId).add(externalId).add(catalogueInternalId).add(contentHash), reply -> {
+            cache.invalidateExternalId(externalId);
+            cache.invalidateInternalId(internalId);
+            cache.invalidateGroups();
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture());
             } else {
                 resultHandler.handle(Future.failedFuture(reply.cause()));
                 LOGGER.error(reply.cause());
@@ -71,8 +130,13 @@ public class DatasetManager {
         });
     }
 
-    public void create(String internalId, String externalId,Handler<AsyncResult<Void>> resultHandler){
-        databaseService.update(INSERT_DS_STATEMENT, new JsonArray().add(internalId).add(externalId), reply -> {
+    /**
+     * Records the fingerprint of a dataset after its content has been written to piveau.
+     */
+    public void updateContentHash(String externalId, String contentHash, Handler<AsyncResult<Void>> resultHandler){
+        databaseService.update(UPDATE_DS_CONTENT_HASH_UPDATE, new JsonArray().add(contentHash).add(externalId).add(externalId), reply -> {
+            cache.invalidateExternalId(externalId);
+            cache.invalidateGroups();
             if (reply.succeeded()) {
                 resultHandler.handle(Future.succeededFuture());
             } else {
@@ -82,7 +146,155 @@ public class DatasetManager {
         });
     }
 
+    /**
+     * Inserts several dataset mappings with one batch update.
+     * @param datasetIds internal ids of the datasets keyed by their external ids
+     * @param contentHashes fingerprints of the datasets keyed by their external ids
+     */
+    public void createAll(Map<String, String> datasetIds, Map<String, String> contentHashes, String catalogueInternalId, Handler<AsyncResult<Void>> resultHandler){
+        List<JsonArray> params = new ArrayList<>();
+        for (Map.Entry<String, String> datasetId : datasetIds.entrySet()) {
+            params.add(new JsonArray().add(datasetId.getKey()).add(datasetId.getValue()).add(datasetId.getKey()).add(catalogueInternalId).add(contentHashes.get(datasetId.getKey())));
+        }
+        batchUpdate(INSERT_DS_STATEMENT, params, reply -> {
+            for (Map.Entry<String, String> datasetId : datasetIds.entrySet()) {
+                cache.invalidateExternalId(datasetId.getKey());
+                cache.invalidateInternalId(datasetId.getValue());
+            }
+            cache.invalidateGroups();
+            resultHandler.handle(reply);
+        });
+    }
+
+    public void deleteAll(Collection<String> internalIds, Handler<AsyncResult<Void>> resultHandler){
+        List<JsonArray> params = new ArrayList<>();
+        for (String internalId : internalIds) {
+            params.add(new JsonArray().add(internalId));
+        }
+        batchUpdate(DELETE_DS_BATCH_UPDATE, params, reply -> {
+            internalIds.forEach(cache::invalidateInternalId);
+            cache.invalidateGroups();
+            resultHandler.handle(reply);
+        });
+    }
+
+    private void batchUpdate(String update, List<JsonArray> params, Handler<AsyncResult<Void>> resultHandler){
+        if (params.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        databaseService.batchUpdate(update, params, reply -> {
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+                LOGGER.error(reply.cause());
+            }
+        });
+    }
+
+    /**
+     * @return internal ids of the datasets of a catalogue
+     */
     public void dataAssetIdsOfCatalogue(String catalogueInternalId, Handler<AsyncResult<List<String>>> asyncResultHandler) {
+        findByCatalogue(catalogueInternalId, reply -> {
+            if (reply.succeeded()) {
+                List<String> ids = new ArrayList<>();
+                for (JsonObject dataset : reply.result().values()) {
+                    ids.add(dataset.getString("internal_id"));
+                }
+                asyncResultHandler.handle(Future.succeededFuture(ids));
+            } else {
+                asyncResultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * @return internal_id and content_hash of the datasets of a catalogue keyed by their external ids
+     */
+    public void findByCatalogue(String catalogueInternalId, Handler<AsyncResult<Map<String, JsonObject>>> resultHandler) {
+        IdMappingCache.Entry entry = cache.getGroup(catalogueInternalId);
+        if (entry != null) {
+            resultHandler.handle(Future.succeededFuture(toDatasetMap(entry.getRow())));
+            return;
+        }
+        long generation = cache.getGeneration();
+        databaseService.query(SELECT_CATALOGUE_DS_STATEMENT, new JsonArray().add(catalogueInternalId), reply -> {
+            if (reply.succeeded()) {
+                JsonObject datasets = new JsonObject();
+                for (JsonObject row : reply.result()) {
+                    datasets.put(row.getString("external_id"), new JsonObject()
+                            .put("internal_id", row.getString("internal_id"))
+                            .put("content_hash", row.getString("content_hash")));
+                }
+                cache.putGroup(catalogueInternalId, datasets, generation);
+                resultHandler.handle(Future.succeededFuture(toDatasetMap(datasets)));
+            } else {
+                LOGGER.error("Can not get Ids of Catalogue");
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    private Map<String, JsonObject> toDatasetMap(JsonObject datasets) {
+        Map<String, JsonObject> datasetMap = new HashMap<>();
+        for (Map.Entry<String, Object> dataset : datasets) {
+            datasetMap.put(dataset.getKey(), (JsonObject) dataset.getValue());
+        }
+        return datasetMap;
+    }
+
+    /**
+     * Assigns datasets stored without catalogue to their catalogue according to the catalogue listings of the piveau hub.
+     * Only needed for mappings created before the catalogue was stored with the dataset.
+     */
+    public void reconcileCatalogues(Handler<AsyncResult<Void>> resultHandler) {
+        databaseService.query(COUNT_UNASSIGNED_DS_STATEMENT, new JsonArray(), countReply -> {
+            if (countReply.failed()) {
+                resultHandler.handle(Future.failedFuture(countReply.cause()));
+            } else if (((Number) countReply.result().get(0).getValue("count")).longValue() == 0) {
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                databaseService.query(SELECT_CAT_IDS_STATEMENT, new JsonArray(), catalogueReply -> {
+                    if (catalogueReply.succeeded()) {
+                        reconcileCatalogues(catalogueReply.result(), 0, resultHandler);
+                    } else {
+                        resultHandler.handle(Future.failedFuture(catalogueReply.cause()));
+                    }
+                });
+            }
+        });
+    }
+
+    private void reconcileCatalogues(List<JsonObject> catalogues, int index, Handler<AsyncResult<Void>> resultHandler) {
+        if (index >= catalogues.size()) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        String catalogueInternalId = catalogues.get(index).getString("internal_id");
+        piveauDataAssetIdsOfCatalogue(catalogueInternalId, idsReply -> {
+            if (idsReply.succeeded()) {
+                List<JsonArray> params = new ArrayList<>();
+                for (String internalId : idsReply.result()) {
+                    params.add(new JsonArray().add(catalogueInternalId).add(internalId));
+                }
+                batchUpdate(ASSIGN_DS_UPDATE, params, updateReply -> {
+                    cache.invalidateGroup(catalogueInternalId);
+                    if (updateReply.succeeded()) {
+                        LOGGER.info("Datasets of catalogue " + catalogueInternalId + " reconciled.");
+                        reconcileCatalogues(catalogues, index + 1, resultHandler);
+                    } else {
+                        resultHandler.handle(Future.failedFuture(updateReply.cause()));
+                    }
+                });
+            } else {
+                resultHandler.handle(Future.failedFuture(idsReply.cause()));
+            }
+        });
+    }
+
+    private void piveauDataAssetIdsOfCatalogue(String catalogueInternalId, Handler<AsyncResult<List<String>>> asyncResultHandler) {
         piveauMessageService.getAllDatasetsOfCatalogue(catalogueInternalId, jsonReply -> {
             if (jsonReply.succeeded()) {
                 ArrayList<String> ids = new ArrayList<>();
@@ -1,37 +1,78 @@
 package de.fraunhofer.fokus.ids.manager;
 
 import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformerService;
+import de.fraunhofer.fokus.ids.utils.GraphRenderingCache;
+import de.fraunhofer.fokus.ids.utils.QueryResultCache;
 import de.fraunhofer.fokus.ids.utils.TSConnector;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.client.HttpResponse;
 import org.apache.commons.io.IOUtils;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class GraphManager {
+    private final Logger LOGGER = LoggerFactory.getLogger(GraphManager.class.getName());
     private DCATTransformerService dcatTransformerService;
     private TSConnector tsConnector;
+    private Vertx vertx;
+    private QueryResultCache queryResultCache;
+    private GraphRenderingCache graphRenderingCache;
+
+    private int batchSize;
+    private long batchDelay;
+    private Map<String, Model> pendingGraphs = new LinkedHashMap<>();
+    private Map<String, List<Handler<AsyncResult<HttpResponse<Buffer>>>>> pendingHandlers = new LinkedHashMap<>();
+    private long flushTimer = -1;
 
     public GraphManager(Vertx vertx, TSConnector tsConnector){
+        this(vertx, tsConnector, new JsonObject());
+    }
+
+    /**
+     * @param config "batchSize" is the maximum number of graphs written with one request (1 disables batching),
+     *               "batchDelay" the time in milliseconds a graph waits for further graphs before the batch is sent
+     */
+    public GraphManager(Vertx vertx, TSConnector tsConnector, JsonObject config){
         this.dcatTransformerService = DCATTransformerService.createProxy(vertx, "dcatTransformerService");
         this.tsConnector = tsConnector;
+        this.vertx = vertx;
+        this.queryResultCache = QueryResultCache.shared(vertx);
+        this.graphRenderingCache = GraphRenderingCache.shared(vertx);
+        this.batchSize = config.getInteger("batchSize", 100);
+        this.batchDelay = config.getLong("batchDelay", 50L);
     }
 
     public void create(String uri, String json, Handler<AsyncResult<HttpResponse<Buffer>>> resultHandler){
+        createGraph(uri, json, invalidating(uri, resultHandler));
+    }
+
+    private void createGraph(String uri, String json, Handler<AsyncResult<HttpResponse<Buffer>>> resultHandler){
         dcatTransformerService.transformJsonForVirtuoso(json,stringAsyncResult -> {
+            if (stringAsyncResult.failed()) {
+                resultHandler.handle(Future.failedFuture(stringAsyncResult.cause()));
+                return;
+            }
             Model model = ModelFactory.createDefaultModel();
             try {
                 model.read(IOUtils.toInputStream(stringAsyncResult.result(), "UTF-8"), null, "JSON-LD");
-                tsConnector.putGraph(uri ,model, resultHandler);
-            } catch (IOException e) {
-                e.printStackTrace();
+            } catch (Exception e) {
+                LOGGER.error("Graph " + uri + " could not be parsed.", e);
+                resultHandler.handle(Future.failedFuture(e));
+                return;
             }
+            write(uri, model, resultHandler);
         });
 
     }
@@ -39,15 +80,74 @@ public class GraphManager {
     public void update(String uri, String json, Handler<AsyncResult<HttpResponse<Buffer>>> readyHandler){
         tsConnector.deleteGraph(uri,deleteAsync->{
             if (deleteAsync.succeeded()){
-                create(uri,json,readyHandler);
+                createGraph(uri,json,invalidating(uri, readyHandler));
             }
             else {
-                readyHandler.handle(Future.failedFuture(deleteAsync.cause()));
+                invalidating(uri, readyHandler).handle(Future.failedFuture(deleteAsync.cause()));
             }
         });
     }
 
     public void delete(String uri, Handler<AsyncResult<HttpResponse<Buffer>>> readyHandler){
-        tsConnector.deleteGraph(uri,readyHandler);
+        tsConnector.deleteGraph(uri,invalidating(uri, readyHandler));
+    }
+
+    /**
+     * Invalidates the cached query results and the rendering of the graph once a write has completed, whether it succeeded or not.
+     */
+    private Handler<AsyncResult<HttpResponse<Buffer>>> invalidating(String uri, Handler<AsyncResult<HttpResponse<Buffer>>> resultHandler) {
+        return reply -> {
+            queryResultCache.invalidate();
+            graphRenderingCache.invalidate(uri);
+            resultHandler.handle(reply);
+        };
+    }
+
+    /**
+     * Queues a graph for the next batched write. The batch is sent once it is full or batchDelay has passed.
+     * A graph queued twice before the batch is sent is written once with the latest model.
+     */
+    private void write(String uri, Model model, Handler<AsyncResult<HttpResponse<Buffer>>> resultHandler) {
+        if (batchSize <= 1) {
+            tsConnector.putGraph(uri, model, resultHandler);
+            return;
+        }
+        pendingGraphs.put(uri, model);
+        pendingHandlers.computeIfAbsent(uri, key -> new ArrayList<>()).add(resultHandler);
+        if (pendingGraphs.size() >= batchSize) {
+            flush();
+        } else if (flushTimer == -1) {
+            flushTimer = vertx.setTimer(batchDelay, id -> {
+                flushTimer = -1;
+                flush();
+            });
+        }
+    }
+
+    private void flush() {
+        if (flushTimer != -1) {
+            vertx.cancelTimer(flushTimer);
+            flushTimer = -1;
+        }
+        if (pendingGraphs.isEmpty()) {
+            return;
+        }
+        Map<String, Model> graphs = pendingGraphs;
+        Map<String, List<Handler<AsyncResult<HttpResponse<Buffer>>>>> handlers = pendingHandlers;
+        pendingGraphs = new LinkedHashMap<>();
+        pendingHandlers = new LinkedHashMap<>();
+
+        tsConnector.putGraphs(graphs, reply -> {
+            if (reply.succeeded()) {
+                LOGGER.info("Batch of " + graphs.size() + " graphs written.");
+                handlers.values().forEach(graphHandlers -> graphHandlers.forEach(handler -> handler.handle(Future.succeededFuture(reply.result()))));
+            } else {
+                LOGGER.error("Batch of " + graphs.size() + " graphs could not be written, falling back to single graph writes.", reply.cause());
+                for (Map.Entry<String, Model> graph : graphs.entrySet()) {
+                    tsConnector.putGraph(graph.getKey(), graph.getValue(), singleReply ->
+                            handlers.get(graph.getKey()).forEach(handler -> handler.handle(singleReply)));
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,28 @@
+package de.fraunhofer.fokus.ids.services;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * One page of the self-description of the broker, listing at most page size connectors.
+ */
+public class BrokerDescriptionPage {
+
+    private final Buffer body;
+    private final String next;
+
+    public BrokerDescriptionPage(Buffer body, String next) {
+        this.body = body;
+        this.next = next;
+    }
+
+    public Buffer getBody() {
+        return body;
+    }
+
+    /**
+     * @return the cursor of the next page, i.e. the last connector of this page, or null if this is the last page
+     */
+    public String getNext() {
+        return next;
+    }
+}
@@ -1,28 +1,27 @@
 package de.fraunhofer.fokus.ids.services;
 
 import de.fraunhofer.fokus.ids.manager.CatalogueManager;
-import de.fraunhofer.fokus.ids.services.authService.AuthAdapterServiceVerticle;
+import de.fraunhofer.fokus.ids.utils.BrokerDescriptionCache;
+import de.fraunhofer.fokus.ids.utils.BufferBody;
+import de.fraunhofer.fokus.ids.utils.ConfigSnapshot;
+import de.fraunhofer.fokus.ids.utils.DatTokenCache;
+import de.fraunhofer.fokus.ids.utils.GraphRenderingCache;
 import de.fraunhofer.fokus.ids.utils.TSConnector;
-import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
-import io.vertx.config.ConfigRetriever;
-import io.vertx.config.ConfigRetrieverOptions;
-import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.*;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.QueryStringEncoder;
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.StringBody;
 
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
-import javax.xml.datatype.XMLGregorianCalendar;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
@@ -37,40 +36,34 @@ public class IDSService {
     private String INFO_MODEL_VERSION = "3.1.0";
     private String[] SUPPORTED_INFO_MODEL_VERSIONS = {"3.1.0"};
     private TSConnector tsConnector ;
-    private AuthAdapterService authAdapterService;
+    private DatTokenCache datTokenCache;
+    private BrokerDescriptionCache brokerDescriptionCache;
+    private GraphRenderingCache graphRenderingCache;
     private Vertx vertx;
     private Serializer serializer= new Serializer();
+    private volatile ResponseMessageFactory responseMessageFactory;
 
     public IDSService(Vertx vertx , TSConnector tsConnector) {
         this.catalogueManager = new CatalogueManager(vertx);
         this.tsConnector = tsConnector;
         this.vertx = vertx;
-        this.authAdapterService = AuthAdapterService.createProxy(vertx, AuthAdapterServiceVerticle.ADDRESS);
+        this.datTokenCache = DatTokenCache.shared(vertx);
+        this.brokerDescriptionCache = BrokerDescriptionCache.shared(vertx);
+        this.graphRenderingCache = GraphRenderingCache.shared(vertx);
     }
 
-    private void createSucceededMessage(URI correlationMessageURI, Handler<AsyncResult<MessageProcessedNotificationMessage>> resultHandler) {
-        authAdapterService.retrieveToken( tokenReply -> {
+    private void createSucceededMessage(URI correlationMessageURI, Handler<AsyncResult<String>> resultHandler) {
+        datTokenCache.getToken( tokenReply -> {
             if(tokenReply.succeeded()){
-                getConfiguration( reply -> {
+                getResponseMessageFactory( reply -> {
                     if(reply.succeeded()) {
                         try {
-                            MessageProcessedNotificationMessage message = new MessageProcessedNotificationMessageBuilder(new URI(reply.result().getString("baseUrl")+"/MessageProcessedNotification/"+UUID.randomUUID()))
-                                    ._correlationMessage_(correlationMessageURI)
-                                    ._issued_(getDate())
-                                    ._modelVersion_(INFO_MODEL_VERSION)
-                                    ._issuerConnector_(new URI(reply.result().getString("baseUrl")+"#Broker"))
-                                    ._securityToken_(new DynamicAttributeTokenBuilder(new URI(reply.result().getString("baseUrl")+"#DAT"))
-                                            ._tokenFormat_(TokenFormat.JWT)
-                                            ._tokenValue_(tokenReply.result())
-                                            .build()) 
-                                    .build();
-                            resultHandler.handle(Future.succeededFuture(message));
-                        } catch (URISyntaxException e) {
+                            resultHandler.handle(Future.succeededFuture(reply.result().messageProcessedNotification(correlationMessageURI, tokenReply.result())));
+                        } catch (IOException e) {
                             LOGGER.error(e);
                             resultHandler.handle(Future.failedFuture(e));
                         }
                     } else {
-                        LOGGER.error(reply.cause());
                         resultHandler.handle(Future.failedFuture(reply.cause()));
                     }
                 });
@@ -81,28 +74,20 @@ public class IDSService {
     }
 
     public void createResultMessage(URI correlationMessageURI, Handler<AsyncResult<ResultMessage>> resultHandler){
-        authAdapterService.retrieveToken( tokenReply -> {
+        datTokenCache.getToken( tokenReply -> {
             if(tokenReply.succeeded()){
-                getConfiguration( reply -> {
+                getResponseMessageFactory( reply -> {
                     if(reply.succeeded()) {
-                        try {
-                            ResultMessage message =  new ResultMessageBuilder(new URI(reply.result().getString("baseUrl")+"/ResultMessage/"+UUID.randomUUID()))
-                                    ._correlationMessage_(correlationMessageURI)
-                                    ._modelVersion_(INFO_MODEL_VERSION)
-                                    ._issued_(getDate())
-                                    ._issuerConnector_(new URI(reply.result().getString("baseUrl")+"#Broker"))
-                                    ._securityToken_(new DynamicAttributeTokenBuilder(new URI(reply.result().getString("baseUrl")+"#DAT"))
-                                            ._tokenFormat_(TokenFormat.JWT)
-                                            ._tokenValue_(tokenReply.result())
-                                            .build())
-                                    .build();
-                            resultHandler.handle(Future.succeededFuture(message));
-                        } catch (URISyntaxException e) {
-                            LOGGER.error(e);
-                            resultHandler.handle(Future.failedFuture(e));
-                        }
+                        ResponseMessageFactory factory = reply.result();
+                        ResultMessage message =  new ResultMessageBuilder(factory.messageId("ResultMessage"))
+                                ._correlationMessage_(correlationMessageURI)
+                                ._modelVersion_(INFO_MODEL_VERSION)
+                                ._issued_(factory.now())
+                                ._issuerConnector_(factory.getBrokerUri())
+                                ._securityToken_(factory.securityToken(tokenReply.result()))
+                                .build();
+                        resultHandler.handle(Future.succeededFuture(message));
                     } else {
-                        LOGGER.error(reply.cause());
                         resultHandler.handle(Future.failedFuture(reply.cause()));
                     }
                 });
@@ -112,30 +97,18 @@ public class IDSService {
         });
     }
 
-    private void createRejectionMessage(RejectionReason rejectionReason, URI correlationMessageURI, Handler<AsyncResult<RejectionMessage>> resultHandler) {
-        authAdapterService.retrieveToken( tokenReply -> {
+    private void createRejectionMessage(RejectionReason rejectionReason, URI correlationMessageURI, Handler<AsyncResult<String>> resultHandler) {
+        datTokenCache.getToken( tokenReply -> {
             if(tokenReply.succeeded()){
-                getConfiguration( reply -> {
+                getResponseMessageFactory( reply -> {
                     if(reply.succeeded()) {
                         try {
-                            RejectionMessage message = new RejectionMessageBuilder(new URI(reply.result().getString("baseUrl")+"/RejectionMessage/"+UUID.randomUUID()))
-                                    ._correlationMessage_(correlationMessageURI)
-                                    ._issued_(getDate())
-                                    ._modelVersion_(INFO_MODEL_VERSION)
-                                    ._issuerConnector_(new URI(reply.result().getString("baseUrl")+"#Broker"))
-                                    ._securityToken_(new DynamicAttributeTokenBuilder(new URI(reply.result().getString("baseUrl")+"#DAT"))
-                                            ._tokenFormat_(TokenFormat.JWT)
-                                            ._tokenValue_(tokenReply.result())
-                                            .build()) 
-                                    ._rejectionReason_(rejectionReason)
-                                    .build();
-                            resultHandler.handle(Future.succeededFuture(message));
-                        } catch (URISyntaxException e) {
+                            resultHandler.handle(Future.succeededFuture(reply.result().rejection(rejectionReason, correlationMessageURI, tokenReply.result())));
+                        } catch (IOException e) {
                             LOGGER.error(e);
                             resultHandler.handle(Future.failedFuture(e));
                         }
                     } else {
-                        LOGGER.error(reply.cause());
                         resultHandler.handle(Future.failedFuture(reply.cause()));
                     }
                 });
@@ -146,21 +119,20 @@ public class IDSService {
     }
 
     private void createSelfDescriptionResponse( JsonObject config, URI correlationMessageURI, Handler<AsyncResult<Message>> resultHandler) {
-        authAdapterService.retrieveToken( tokenReply -> {
+        datTokenCache.getToken( tokenReply -> {
             if(tokenReply.succeeded()){
                 try {
-                    resultHandler.handle(Future.succeededFuture(new DescriptionResponseMessageBuilder(new URI(config.getString("baseUrl")+"/DescriptionResponseMessage/"+UUID.randomUUID()))
-                            ._issued_(getDate())
-                            ._issuerConnector_(new URI(config.getString("baseUrl")+"#Broker"))
+                    ResponseMessageFactory factory = responseMessageFactory(config);
+                    resultHandler.handle(Future.succeededFuture(new DescriptionResponseMessageBuilder(factory.messageId("DescriptionResponseMessage"))
+                            ._issued_(factory.now())
+                            ._issuerConnector_(factory.getBrokerUri())
                             ._correlationMessage_(correlationMessageURI)
                             ._modelVersion_(INFO_MODEL_VERSION)
-                            ._securityToken_(new DynamicAttributeTokenBuilder(new URI(config.getString("baseUrl")+"#DAT"))
-                                    ._tokenFormat_(TokenFormat.JWT)
-                                    ._tokenValue_(tokenReply.result())
-                                    .build()) 
+                            ._securityToken_(factory.securityToken(tokenReply.result()))
                             .build()));
                 } catch (URISyntaxException e) {
                     LOGGER.error(e);
+                    resultHandler.handle(Future.failedFuture(e));
                 }
             } else {
                 resultHandler.handle(Future.failedFuture(tokenReply.cause()));
@@ -168,40 +140,78 @@ public class IDSService {
         });
     }
 
-    private XMLGregorianCalendar getDate() {
-        GregorianCalendar c = new GregorianCalendar();
-        c.setTime(new Date());
-        try {
-            return DatatypeFactory.newInstance().newXMLGregorianCalendar(c);
-        } catch (DatatypeConfigurationException e) {
-            LOGGER.error(e);
+    private void getResponseMessageFactory(Handler<AsyncResult<ResponseMessageFactory>> resultHandler) {
+        getConfiguration( reply -> {
+            if(reply.succeeded()) {
+                try {
+                    resultHandler.handle(Future.succeededFuture(responseMessageFactory(reply.result())));
+                } catch (URISyntaxException e) {
+                    LOGGER.error(e);
+                    resultHandler.handle(Future.failedFuture(e));
+                }
+            } else {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * @return the factory for the configured base URL, replaced if the base URL changed
+     */
+    private ResponseMessageFactory responseMessageFactory(JsonObject config) throws URISyntaxException {
+        ResponseMessageFactory factory = responseMessageFactory;
+        if (factory == null || !factory.getBaseUrl().equals(config.getString("baseUrl"))) {
+            factory = new ResponseMessageFactory(config.getString("baseUrl"), INFO_MODEL_VERSION, serializer);
+            responseMessageFactory = factory;
         }
-        return null;
+        return factory;
     }
 
+    /**
+     * Answers a DescriptionRequestMessage with the requested graph or the self-description of the broker.
+     * The self-description is paged if the requested element is the broker URI with size and after query parameters,
+     * or if BROKER_CONFIG.selfDescriptionPageSize is set. A page with more connectors to come carries a "continuation" part
+     * with the requested element of the next page.
+     */
     public void getSelfDescriptionResponse(URI uri,DescriptionRequestMessage header, Handler<AsyncResult<HttpEntity>> resultHandler) {
         getConfiguration( reply -> {
             if (reply.succeeded()) {
                 createSelfDescriptionResponse(reply.result(), uri, selfDescriptionReply -> {
                     if (selfDescriptionReply.succeeded()) {
-                        if (header.getRequestedElement() != null) {
-                            tsConnector.getGraph(header.getRequestedElement().toString(), asyncResult -> {
+                        Map<String, List<String>> pageParameters = brokerPageParameters(reply.result(), header.getRequestedElement());
+                        if (header.getRequestedElement() != null && pageParameters == null) {
+                            getGraph(header.getRequestedElement().toString(), asyncResult -> {
                                 if (asyncResult.succeeded()) {
-                                    createMultiPartMessage(uri, selfDescriptionReply.result(), new JsonObject(asyncResult.result()), resultHandler);
+                                    createMultiPartMessage(uri, selfDescriptionReply.result(), asyncResult.result(), resultHandler);
                                 } else {
                                     LOGGER.error(asyncResult.cause());
                                     handleRejectionMessage(RejectionReason.NOT_FOUND, uri, resultHandler);
                                 }
                             });
                         } else {
-                            buildBroker(reply.result(), brokerResult -> {
-                                if (brokerResult.succeeded()) {
-                                    createMultiPartMessage(uri, selfDescriptionReply.result(), brokerResult.result(), resultHandler);
-                                } else {
-                                    LOGGER.error(brokerResult.cause());
-                                    resultHandler.handle(Future.failedFuture(brokerResult.cause()));
-                                }
-                            });
+                            String after = pageParameters != null ? firstParameter(pageParameters, "after") : null;
+                            int pageSize = getPageSize(reply.result(), pageParameters != null ? firstParameter(pageParameters, "size") : null, after);
+                            if (pageSize > 0) {
+                                getBrokerDescriptionPage(reply.result(), after, pageSize, pageResult -> {
+                                    if (pageResult.succeeded()) {
+                                        String next = pageResult.result().getNext() != null ? nextPageElement(reply.result(), pageSize, pageResult.result().getNext()) : null;
+                                        createMultiPartMessage(uri, selfDescriptionReply.result(), pageResult.result().getBody(), ContentType.create("application/json", StandardCharsets.UTF_8), next, resultHandler);
+                                    } else {
+                                        LOGGER.error(pageResult.cause());
+                                        resultHandler.handle(Future.failedFuture(pageResult.cause()));
+                                    }
+                                });
+                            } else {
+                                getBrokerDescription(reply.result(), brokerResult -> {
+                                    if (brokerResult.succeeded()) {
+                                        createMultiPartMessage(uri, selfDescriptionReply.result(), brokerResult.result().getBody(), resultHandler);
+                                    } else {
+                                        LOGGER.error(brokerResult.cause());
+                                        resultHandler.handle(Future.failedFuture(brokerResult.cause()));
+                                    }
+                                });
+                            }
                         }
                     } else {
                         LOGGER.error("SDR Optional not present.");
@@ -215,6 +225,136 @@ public class IDSService {
         });
     }
 
+    /**
+     * Serves the JSON-LD rendering of a graph from the GraphRenderingCache, the triplestore is only asked on a miss.
+     */
+    private void getGraph(String graph, Handler<AsyncResult<Buffer>> resultHandler) {
+        Buffer rendering = graphRenderingCache.get(graph);
+        if (rendering != null) {
+            resultHandler.handle(Future.succeededFuture(rendering));
+            return;
+        }
+        long version = graphRenderingCache.getVersion();
+        tsConnector.getGraph(graph, reply -> {
+            if (reply.succeeded()) {
+                graphRenderingCache.put(graph, reply.result(), version);
+            }
+            resultHandler.handle(reply);
+        });
+    }
+
+    /**
+     * @return the query parameters of the requested element if it addresses a page of the broker, e.g. baseUrl?size=100#Broker, otherwise null
+     */
+    private Map<String, List<String>> brokerPageParameters(JsonObject config, URI requestedElement) {
+        if (requestedElement == null || requestedElement.getRawQuery() == null) {
+            return null;
+        }
+        try {
+            URI withoutQuery = new URI(requestedElement.getScheme(), requestedElement.getRawAuthority(), requestedElement.getRawPath(), null, requestedElement.getRawFragment());
+            if (withoutQuery.equals(responseMessageFactory(config).getBrokerUri())) {
+                return new QueryStringDecoder(requestedElement.getRawQuery(), false).parameters();
+            }
+        } catch (URISyntaxException e) {
+            LOGGER.error(e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the broker URI addressing the page after the given cursor, e.g. baseUrl?size=100&after=...#Broker
+     */
+    private String nextPageElement(JsonObject config, int pageSize, String after) {
+        try {
+            URI brokerUri = responseMessageFactory(config).getBrokerUri();
+            QueryStringEncoder nextPage = new QueryStringEncoder(new URI(brokerUri.getScheme(), brokerUri.getRawAuthority(), brokerUri.getRawPath(), null, null).toString());
+            nextPage.addParam("size", String.valueOf(pageSize));
+            nextPage.addParam("after", after);
+            return brokerUri.getRawFragment() != null ? nextPage + "#" + brokerUri.getRawFragment() : nextPage.toString();
+        } catch (URISyntaxException e) {
+            LOGGER.error(e);
+            return null;
+        }
+    }
+
+    private String firstParameter(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    /**
+     * @param size requested page size, may be null
+     * @param after requested cursor, may be null
+     * @return the size of the page to serve, 0 for the complete self-description
+     */
+    public int getPageSize(JsonObject config, String size, String after) {
+        int maxPageSize = config.getInteger("selfDescriptionMaxPageSize", 1000);
+        int pageSize = config.getInteger("selfDescriptionPageSize", 0);
+        if (size != null) {
+            try {
+                pageSize = Integer.parseInt(size);
+            } catch (NumberFormatException e) {
+                LOGGER.error("Invalid page size: " + size);
+            }
+        }
+        if (pageSize <= 0) {
+            return after != null ? maxPageSize : 0;
+        }
+        return Math.min(pageSize, maxPageSize);
+    }
+
+    /**
+     * Builds one page of the self-description of the broker, listing connectors in keyset order.
+     * @param after the last connector of the previous page, null for the first page
+     */
+    public void getBrokerDescriptionPage(JsonObject config, String after, int pageSize, Handler<AsyncResult<BrokerDescriptionPage>> next) {
+        catalogueManager.findPage(after, pageSize, data -> {
+            if (data.succeeded()) {
+                Optional<Broker> brokerOptional = createBroker(config, toURIs(data.result()));
+                if (brokerOptional.isPresent()) {
+                    try {
+                        String nextCursor = data.result().size() == pageSize ? data.result().get(pageSize - 1).getString("external_id") : null;
+                        next.handle(Future.succeededFuture(new BrokerDescriptionPage(Buffer.buffer(serializer.serialize(brokerOptional.get())), nextCursor)));
+                    } catch (IOException e) {
+                        LOGGER.error(e);
+                        next.handle(Future.failedFuture(e));
+                    }
+                } else {
+                    LOGGER.error("Broker Optional not present.");
+                    next.handle(Future.failedFuture("Broker Optional not present."));
+                }
+            } else {
+                next.handle(Future.failedFuture(data.cause()));
+            }
+        });
+    }
+
+    /**
+     * Serves the serialized self-description of the broker, it is only rebuilt after catalogues changed.
+     */
+    public void getBrokerDescription(JsonObject config, Handler<AsyncResult<BrokerDescriptionCache.Description>> next) {
+        String configKey = config.encode();
+        BrokerDescriptionCache.Description description = brokerDescriptionCache.get(configKey);
+        if (description != null) {
+            next.handle(Future.succeededFuture(description));
+            return;
+        }
+        long generation = brokerDescriptionCache.getGeneration();
+        buildBroker(config, brokerResult -> {
+            if (brokerResult.succeeded()) {
+                try {
+                    Buffer body = Buffer.buffer(serializer.serialize(brokerResult.result()));
+                    next.handle(Future.succeededFuture(brokerDescriptionCache.put(body, configKey, generation)));
+                } catch (IOException e) {
+                    LOGGER.error(e);
+                    next.handle(Future.failedFuture(e));
+                }
+            } else {
+                next.handle(Future.failedFuture(brokerResult.cause()));
+            }
+        });
+    }
+
     public void buildBroker(JsonObject config, Handler<AsyncResult<Broker>> next) {
         listOfExternalIds(arrayListAsyncResult -> {
             if(arrayListAsyncResult.succeeded()) {
@@ -249,17 +389,9 @@ public class IDSService {
     }
 
     private void listOfExternalIds(Handler<AsyncResult<ArrayList<URI>>> next) {
-        ArrayList<URI> externalIds = new ArrayList<>();
         catalogueManager.find(data -> {
             if (data.succeeded()) {
-                for (JsonObject jsonObject : data.result()) {
-                    try {
-                        externalIds.add(new URI(jsonObject.getString("external_id")));
-                    } catch (URISyntaxException e) {
-                        e.printStackTrace();
-                    }
-                }
-                next.handle(Future.succeededFuture(externalIds));
+                next.handle(Future.succeededFuture(toURIs(data.result())));
             } else {
                 LOGGER.error(data.cause());
                 next.handle(Future.failedFuture(data.cause()));
@@ -267,6 +399,18 @@ public class IDSService {
         });
     }
 
+    private ArrayList<URI> toURIs(List<JsonObject> catalogues) {
+        ArrayList<URI> externalIds = new ArrayList<>();
+        for (JsonObject jsonObject : catalogues) {
+            try {
+                externalIds.add(new URI(jsonObject.getString("external_id")));
+            } catch (URISyntaxException e) {
+                e.printStackTrace();
+            }
+        }
+        return externalIds;
+    }
+
     public void createMultiPartMessage(URI uri, Object headerObject, Object payloadObject, Handler<AsyncResult<HttpEntity>> resultHandler) {
         try {
             ContentBody contentBody = new StringBody(serializer.serialize(headerObject), ContentType.create("application/json"));
@@ -285,27 +429,73 @@ public class IDSService {
         }
     }
 
-    private HttpEntity createMultipartMessage(Message message) {
-        try {
-            ContentBody cb = new StringBody(serializer.serialize(message), org.apache.http.entity.ContentType.create("application/json"));
+    /**
+     * Creates a multipart message whose payload part is taken over as is, e.g. JSON-LD rendered by the TSConnector.
+     */
+    public void createMultiPartMessage(URI uri, Object headerObject, Buffer payload, Handler<AsyncResult<HttpEntity>> resultHandler) {
+        createMultiPartMessage(uri, headerObject, payload, ContentType.create("application/json", StandardCharsets.UTF_8), resultHandler);
+    }
 
-            MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
-                    .setCharset(StandardCharsets.UTF_8)
-                    .setContentType(ContentType.MULTIPART_FORM_DATA)
-                    .addPart("header", cb);
+    /**
+     * Creates a multipart message whose payload part is taken over as is with the given content type,
+     * e.g. a SPARQL result as returned by the triplestore.
+     */
+    public void createMultiPartMessage(URI uri, Object headerObject, Buffer payload, ContentType payloadContentType, Handler<AsyncResult<HttpEntity>> resultHandler) {
+        createMultiPartMessage(uri, headerObject, payload, payloadContentType, null, resultHandler);
+    }
 
-            return multipartEntityBuilder.build();
+    /**
+     * Like {@link #createMultiPartMessage(URI, Object, Buffer, ContentType, Handler)}, with a "continuation" part
+     * carrying the token of the next page of a paged result, if one is given.
+     */
+    public void createMultiPartMessage(URI uri, Object headerObject, Buffer payload, ContentType payloadContentType, String continuation, Handler<AsyncResult<HttpEntity>> resultHandler) {
+        try {
+            HttpEntity message = continuation == null
+                    ? createMultipartMessage(serializer.serialize(headerObject), payload, payloadContentType)
+                    : createMultipartMessage(serializer.serialize(headerObject), payload, payloadContentType, continuation);
+            resultHandler.handle(Future.succeededFuture(message));
         } catch (IOException e) {
             LOGGER.error(e);
+            handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,uri,resultHandler);
         }
-        return null;
+    }
+
+    private HttpEntity createMultipartMessage(String header, Buffer payload, ContentType payloadContentType) {
+        return multipartBuilder(header, payload, payloadContentType).build();
+    }
+
+    private HttpEntity createMultipartMessage(String header, Buffer payload, ContentType payloadContentType, String continuation) {
+        return multipartBuilder(header, payload, payloadContentType)
+                .addPart("continuation", new StringBody(continuation, ContentType.create("text/plain", StandardCharsets.UTF_8)))
+                .build();
+    }
+
+    private MultipartEntityBuilder multipartBuilder(String header, Buffer payload, ContentType payloadContentType) {
+        MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
+                .setCharset(StandardCharsets.UTF_8)
+                .setContentType(ContentType.MULTIPART_FORM_DATA)
+                .addPart("header", new StringBody(header, ContentType.create("application/json")));
+        if (payload != null) {
+            multipartEntityBuilder.addPart("payload", new BufferBody(payload, payloadContentType));
+        }
+        return multipartEntityBuilder;
     }
 
     public void handleSucceededMessage(URI uri, Handler<AsyncResult<HttpEntity>> readyHandler) {
+        handleSucceededMessage(uri, (Buffer) null, readyHandler);
+    }
+
+    /**
+     * Answers with a MessageProcessedNotificationMessage carrying the given JSON as payload.
+     */
+    public void handleSucceededMessage(URI uri, JsonObject payload, Handler<AsyncResult<HttpEntity>> readyHandler) {
+        handleSucceededMessage(uri, payload.toBuffer(), readyHandler);
+    }
+
+    private void handleSucceededMessage(URI uri, Buffer payload, Handler<AsyncResult<HttpEntity>> readyHandler) {
         createSucceededMessage(uri, messageProcessedNotificationAsyncResult -> {
             if (messageProcessedNotificationAsyncResult.succeeded()) {
-                HttpEntity buffer = createMultipartMessage(messageProcessedNotificationAsyncResult.result());
-                readyHandler.handle(Future.succeededFuture(buffer));
+                readyHandler.handle(Future.succeededFuture(createMultipartMessage(messageProcessedNotificationAsyncResult.result(), payload, ContentType.create("application/json", StandardCharsets.UTF_8))));
             } else {
                 readyHandler.handle(Future.failedFuture(messageProcessedNotificationAsyncResult.cause()));
             }
@@ -315,8 +505,7 @@ public class IDSService {
     public void handleRejectionMessage(RejectionReason rejectionReason, URI uri, Handler<AsyncResult<HttpEntity>> readyHandler) {
         createRejectionMessage(rejectionReason, uri, rejectionMessageAsyncResult -> {
             if (rejectionMessageAsyncResult.succeeded()) {
-                HttpEntity buffer =  createMultipartMessage(rejectionMessageAsyncResult.result());
-                readyHandler.handle(Future.succeededFuture(buffer));
+                readyHandler.handle(Future.succeededFuture(createMultipartMessage(rejectionMessageAsyncResult.result(), null, null)));
             } else {
                 readyHandler.handle(Future.failedFuture(rejectionMessageAsyncResult.cause()));
             }
@@ -325,15 +514,7 @@ public class IDSService {
 
 
     private void getConfiguration(Handler<AsyncResult<JsonObject>> resultHandler){
-
-        ConfigStoreOptions confStore = new ConfigStoreOptions()
-                .setType("env");
-
-        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
-
-        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
-
-        retriever.getConfig(config -> {
+        ConfigSnapshot.load(vertx, config -> {
             if(config.succeeded()){
                 resultHandler.handle(Future.succeededFuture(config.result().getJsonObject("BROKER_CONFIG")));
             } else {
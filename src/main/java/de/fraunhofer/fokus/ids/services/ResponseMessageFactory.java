@@ -0,0 +1,229 @@
+package de.fraunhofer.fokus.ids.services;
+
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import io.vertx.core.json.Json;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds the headers of the replies of the broker for one base URL.
+ * The broker and DAT URIs are computed once, message ids are drawn from a non-blocking random source.
+ * MessageProcessedNotification and Rejection headers are serialized once as templates,
+ * per reply only id, issued date, correlation message and token are filled in.
+ */
+public class ResponseMessageFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseMessageFactory.class.getName());
+
+    private static final ThreadLocal<DatatypeFactory> DATATYPE_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final String ID_SLOT = "urn:odb-manager:template:id";
+    private static final String CORRELATION_SLOT = "urn:odb-manager:template:correlation";
+    private static final String TOKEN_SLOT = "odb-manager-template-token";
+
+    private final String baseUrl;
+    private final String infoModelVersion;
+    private final Serializer serializer;
+    private final URI brokerUri;
+    private final URI datUri;
+
+    private volatile Template messageProcessedNotificationTemplate;
+    private final Map<RejectionReason, Template> rejectionTemplates = new ConcurrentHashMap<>();
+
+    /**
+     * Serialized header split at its variable values. A null template means the serializer output could not be
+     * split and headers are serialized in full.
+     */
+    private static class Template {
+        private static final Template UNUSABLE = new Template(null, null);
+
+        private final String[] parts;
+        private final int[] slots;
+
+        private Template(String[] parts, int[] slots) {
+            this.parts = parts;
+            this.slots = slots;
+        }
+
+        private String fill(String... values) {
+            StringBuilder header = new StringBuilder(parts.length * 32 + values[values.length - 1].length());
+            for (int i = 0; i < slots.length; i++) {
+                header.append(parts[i]).append(values[slots[i]]);
+            }
+            return header.append(parts[parts.length - 1]).toString();
+        }
+    }
+
+    public ResponseMessageFactory(String baseUrl, String infoModelVersion, Serializer serializer) throws URISyntaxException {
+        this.baseUrl = baseUrl;
+        this.infoModelVersion = infoModelVersion;
+        this.serializer = serializer;
+        this.brokerUri = new URI(baseUrl + "#Broker");
+        this.datUri = new URI(baseUrl + "#DAT");
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public URI getBrokerUri() {
+        return brokerUri;
+    }
+
+    /**
+     * @return a new message id below the base URL, e.g. baseUrl/ResultMessage/uuid
+     */
+    public URI messageId(String messageType) {
+        return URI.create(messageIdString(messageType));
+    }
+
+    public XMLGregorianCalendar now() {
+        return DATATYPE_FACTORY.get().newXMLGregorianCalendar(new GregorianCalendar());
+    }
+
+    public DynamicAttributeToken securityToken(String tokenValue) {
+        return new DynamicAttributeTokenBuilder(datUri)
+                ._tokenFormat_(TokenFormat.JWT)
+                ._tokenValue_(tokenValue)
+                .build();
+    }
+
+    /**
+     * @return the serialized header of a MessageProcessedNotificationMessage
+     */
+    public String messageProcessedNotification(URI correlationMessageURI, String tokenValue) throws IOException {
+        Template template = messageProcessedNotificationTemplate;
+        if (template == null) {
+            template = createTemplate(buildMessageProcessedNotification(URI.create(ID_SLOT), sentinelDate(), URI.create(CORRELATION_SLOT), TOKEN_SLOT));
+            messageProcessedNotificationTemplate = template;
+        }
+        if (template != Template.UNUSABLE && correlationMessageURI != null) {
+            return fill(template, "MessageProcessedNotification", correlationMessageURI, tokenValue);
+        }
+        return serializer.serialize(buildMessageProcessedNotification(messageId("MessageProcessedNotification"), now(), correlationMessageURI, tokenValue));
+    }
+
+    /**
+     * @return the serialized header of a RejectionMessage
+     */
+    public String rejection(RejectionReason rejectionReason, URI correlationMessageURI, String tokenValue) throws IOException {
+        Template template = rejectionTemplates.get(rejectionReason);
+        if (template == null) {
+            template = createTemplate(buildRejection(rejectionReason, URI.create(ID_SLOT), sentinelDate(), URI.create(CORRELATION_SLOT), TOKEN_SLOT));
+            rejectionTemplates.put(rejectionReason, template);
+        }
+        if (template != Template.UNUSABLE && correlationMessageURI != null) {
+            return fill(template, "RejectionMessage", correlationMessageURI, tokenValue);
+        }
+        return serializer.serialize(buildRejection(rejectionReason, messageId("RejectionMessage"), now(), correlationMessageURI, tokenValue));
+    }
+
+    private MessageProcessedNotificationMessage buildMessageProcessedNotification(URI id, XMLGregorianCalendar issued, URI correlationMessageURI, String tokenValue) {
+        return new MessageProcessedNotificationMessageBuilder(id)
+                ._correlationMessage_(correlationMessageURI)
+                ._issued_(issued)
+                ._modelVersion_(infoModelVersion)
+                ._issuerConnector_(brokerUri)
+                ._securityToken_(securityToken(tokenValue))
+                .build();
+    }
+
+    private RejectionMessage buildRejection(RejectionReason rejectionReason, URI id, XMLGregorianCalendar issued, URI correlationMessageURI, String tokenValue) {
+        return new RejectionMessageBuilder(id)
+                ._correlationMessage_(correlationMessageURI)
+                ._issued_(issued)
+                ._modelVersion_(infoModelVersion)
+                ._issuerConnector_(brokerUri)
+                ._securityToken_(securityToken(tokenValue))
+                ._rejectionReason_(rejectionReason)
+                .build();
+    }
+
+    private String fill(Template template, String messageType, URI correlationMessageURI, String tokenValue) {
+        return template.fill(messageIdString(messageType), now().toXMLFormat(), escape(correlationMessageURI.toString()), escape(tokenValue));
+    }
+
+    private Template createTemplate(Message message) throws IOException {
+        String[] slotValues = {ID_SLOT, sentinelDate().toXMLFormat(), CORRELATION_SLOT, TOKEN_SLOT};
+        String serialized = serializer.serialize(message);
+        List<String> parts = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        boolean[] found = new boolean[slotValues.length];
+        int position = 0;
+        while (true) {
+            int next = -1;
+            int slot = -1;
+            for (int i = 0; i < slotValues.length; i++) {
+                int index = serialized.indexOf(slotValues[i], position);
+                if (index != -1 && (next == -1 || index < next)) {
+                    next = index;
+                    slot = i;
+                }
+            }
+            if (next == -1) {
+                break;
+            }
+            parts.add(serialized.substring(position, next));
+            slots.add(slot);
+            found[slot] = true;
+            position = next + slotValues[slot].length();
+        }
+        parts.add(serialized.substring(position));
+        for (boolean slotFound : found) {
+            if (!slotFound) {
+                LOGGER.warn("Header template could not be created, headers are serialized in full.");
+                return Template.UNUSABLE;
+            }
+        }
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new Template(parts.toArray(new String[0]), slotArray);
+    }
+
+    private String messageIdString(String messageType) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = random.nextLong() & 0xffffffffffff0fffL | 0x0000000000004000L;
+        long leastSigBits = random.nextLong() & 0x3fffffffffffffffL | 0x8000000000000000L;
+        return baseUrl + "/" + messageType + "/" + new UUID(mostSigBits, leastSigBits);
+    }
+
+    private XMLGregorianCalendar sentinelDate() {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(0);
+        return DATATYPE_FACTORY.get().newXMLGregorianCalendar(calendar);
+    }
+
+    private String escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                String encoded = Json.encode(value);
+                return encoded.substring(1, encoded.length() - 1);
+            }
+        }
+        return value;
+    }
+}
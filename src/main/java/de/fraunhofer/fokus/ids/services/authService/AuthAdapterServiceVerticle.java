@@ -1,9 +1,7 @@
 package de.fraunhofer.fokus.ids.services.authService;
 
 import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
-import io.vertx.config.ConfigRetriever;
-import io.vertx.config.ConfigRetrieverOptions;
-import io.vertx.config.ConfigStoreOptions;
+import de.fraunhofer.fokus.ids.utils.ConfigSnapshot;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Promise;
 import io.vertx.core.buffer.Buffer;
@@ -29,14 +27,7 @@ public class AuthAdapterServiceVerticle extends AbstractVerticle {
     @Override
     public void start(Promise<Void> startPromise) {
 
-        ConfigStoreOptions confStore = new ConfigStoreOptions()
-                .setType("env");
-
-        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
-
-        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
-
-        retriever.getConfig(ar -> {
+        ConfigSnapshot.load(vertx, ar -> {
             if (ar.succeeded()) {
                 Path path = Paths.get("/ids/certs/");
 
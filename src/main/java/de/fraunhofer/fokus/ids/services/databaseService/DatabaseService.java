@@ -28,6 +28,13 @@ public interface DatabaseService {
     @Fluent
     DatabaseService update(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler);
 
+    /**
+     * Performs one update statement for every params row, using a single connection and transaction.
+     * The result contains the number of updated rows of every statement sent to the database.
+     */
+    @Fluent
+    DatabaseService batchUpdate(String query, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler);
+
     @GenIgnore
     static DatabaseService create(SQLClient dbClient, Handler<AsyncResult<DatabaseService>> readyHandler) {
         return new DatabaseServiceImpl(dbClient, readyHandler);
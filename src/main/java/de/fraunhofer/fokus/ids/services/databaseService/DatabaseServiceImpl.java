@@ -13,6 +13,8 @@ import io.vertx.ext.sql.SQLConnection;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -21,6 +23,10 @@ public class DatabaseServiceImpl implements DatabaseService {
     private Logger LOGGER = LoggerFactory.getLogger(DatabaseServiceImpl.class.getName());
     private SQLClient jdbc;
 
+    private static final Pattern MULTI_ROW_INSERT = Pattern.compile("(?is)(INSERT\\s+INTO\\s+.+?\\s+VALUES\\s*)(\\((?:[^()]|\\([^()]*\\))*\\))(.*)");
+    private static final Pattern IN_LIST = Pattern.compile("(?is)(.+?\\bIN\\s*)\\(\\s*\\?\\s*\\)(.*)");
+    private static final int MAX_BATCH_PARAMS = 10000;
+
     public enum ConnectionType{
         QUERY,
         UPDATE
@@ -42,6 +48,16 @@ public class DatabaseServiceImpl implements DatabaseService {
         return this;
     }
 
+    @Override
+    public DatabaseService batchUpdate(String query, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler) {
+        if (params.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture(new ArrayList<>()));
+        } else {
+            createConnection(connection -> handleBatchUpdate(connection, query, params, resultHandler));
+        }
+        return this;
+    }
+
     /**
      * processing pipeline to create the intended result
      * @param queryString SQL Query to perform
@@ -169,6 +185,113 @@ public class DatabaseServiceImpl implements DatabaseService {
         }
     }
 
+    /**
+     * Method to perform a batch of SQL updates in one transaction on the connection retrieved via createConnection.
+     * The async PostgreSQL client does not implement batchWithParams, so INSERT ... VALUES statements are folded
+     * into multi-row inserts, statements with a single "IN (?)" parameter are folded into "IN (?, ?, ...)" lists
+     * and all other statements are executed one after another on the same connection.
+     * @param result Connection future produced by createConnection
+     * @param queryString SQL String to query
+     * @param params list of params for the SQL query, one entry per row
+     */
+    private void handleBatchUpdate(AsyncResult<SQLConnection> result,
+                                   String queryString,
+                                   List<JsonArray> params,
+                                   Handler<AsyncResult<List<Integer>>> resultHandler) {
+
+        if(result.failed()){
+            LOGGER.error("Connection Future failed.", result.cause());
+            resultHandler.handle(Future.failedFuture(result.cause().toString()));
+        }
+        else {
+            SQLConnection connection = result.result();
+            List<String> statements = new ArrayList<>();
+            List<JsonArray> statementParams = new ArrayList<>();
+            Matcher matcher = MULTI_ROW_INSERT.matcher(queryString);
+            Matcher inList = IN_LIST.matcher(queryString);
+            if (matcher.matches()) {
+                int rowsPerStatement = Math.max(1, MAX_BATCH_PARAMS / Math.max(1, params.get(0).size()));
+                for (int i = 0; i < params.size(); i += rowsPerStatement) {
+                    List<JsonArray> rows = params.subList(i, Math.min(i + rowsPerStatement, params.size()));
+                    StringBuilder statement = new StringBuilder(matcher.group(1));
+                    JsonArray flattenedParams = new JsonArray();
+                    for (int row = 0; row < rows.size(); row++) {
+                        statement.append(row == 0 ? "" : ",").append(matcher.group(2));
+                        rows.get(row).forEach(flattenedParams::add);
+                    }
+                    statements.add(statement.append(matcher.group(3)).toString());
+                    statementParams.add(flattenedParams);
+                }
+            } else if (inList.matches() && params.stream().allMatch(row -> row.size() == 1)) {
+                for (int i = 0; i < params.size(); i += MAX_BATCH_PARAMS) {
+                    List<JsonArray> rows = params.subList(i, Math.min(i + MAX_BATCH_PARAMS, params.size()));
+                    StringBuilder statement = new StringBuilder(inList.group(1)).append("(");
+                    JsonArray flattenedParams = new JsonArray();
+                    for (int row = 0; row < rows.size(); row++) {
+                        statement.append(row == 0 ? "?" : ", ?");
+                        flattenedParams.add(rows.get(row).getValue(0));
+                    }
+                    statements.add(statement.append(")").append(inList.group(2)).toString());
+                    statementParams.add(flattenedParams);
+                }
+            } else {
+                for (JsonArray row : params) {
+                    statements.add(queryString);
+                    statementParams.add(row);
+                }
+            }
+            connection.setAutoCommit(false, autoCommit -> {
+                if (autoCommit.succeeded()) {
+                    executeBatch(connection, statements, statementParams, 0, new ArrayList<>(), batch -> {
+                        if (batch.succeeded()) {
+                            connection.commit(commit -> {
+                                connection.close();
+                                if (commit.succeeded()) {
+                                    LOGGER.info("Batch of " + params.size() + " rows committed.");
+                                    resultHandler.handle(Future.succeededFuture(batch.result()));
+                                } else {
+                                    LOGGER.error("Batch update commit failed.", commit.cause());
+                                    resultHandler.handle(Future.failedFuture(commit.cause()));
+                                }
+                            });
+                        } else {
+                            LOGGER.error("Batch update failed.", batch.cause());
+                            connection.rollback(rollback -> {
+                                connection.close();
+                                resultHandler.handle(Future.failedFuture(batch.cause()));
+                            });
+                        }
+                    });
+                } else {
+                    LOGGER.error("Transaction could not be started.", autoCommit.cause());
+                    connection.close();
+                    resultHandler.handle(Future.failedFuture(autoCommit.cause()));
+                }
+            });
+        }
+    }
+
+    private void executeBatch(SQLConnection connection,
+                              List<String> statements,
+                              List<JsonArray> params,
+                              int index,
+                              List<Integer> updated,
+                              Handler<AsyncResult<List<Integer>>> next) {
+
+        if (index == statements.size()) {
+            next.handle(Future.succeededFuture(updated));
+        } else {
+            connection.updateWithParams(statements.get(index), params.get(index), query -> {
+                if (query.succeeded()) {
+                    updated.add(query.result().getUpdated());
+                    executeBatch(connection, statements, params, index + 1, updated, next);
+                } else {
+                    next.handle(Future.failedFuture(query.cause()));
+                }
+            });
+        }
+    }
+
     /**
      * Process the SQL ResultSet (as List<JSONObject>) and reply the results via receivedMessage
      * @param result SQL ResultSet as List<JsonObject>
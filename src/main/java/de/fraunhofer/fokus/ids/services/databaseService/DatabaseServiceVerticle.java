@@ -1,8 +1,6 @@
 package de.fraunhofer.fokus.ids.services.databaseService;
 
-import io.vertx.config.ConfigRetriever;
-import io.vertx.config.ConfigRetrieverOptions;
-import io.vertx.config.ConfigStoreOptions;
+import de.fraunhofer.fokus.ids.utils.ConfigSnapshot;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Promise;
 import io.vertx.core.json.JsonObject;
@@ -22,14 +20,7 @@ public class DatabaseServiceVerticle extends AbstractVerticle {
     @Override
     public void start(Promise<Void> startPromise) {
 
-        ConfigStoreOptions confStore = new ConfigStoreOptions()
-                .setType("env");
-
-        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
-
-        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
-
-        retriever.getConfig(ar -> {
+        ConfigSnapshot.load(vertx, ar -> {
             if (ar.succeeded()) {
                 JsonObject config = ar.result().getJsonObject("DB_CONFIG");
 
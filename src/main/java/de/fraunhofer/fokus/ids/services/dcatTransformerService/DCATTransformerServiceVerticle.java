@@ -1,9 +1,11 @@
 package de.fraunhofer.fokus.ids.services.dcatTransformerService;
 
+import de.fraunhofer.fokus.ids.utils.ConfigSnapshot;
 import de.fraunhofer.fokus.ids.utils.JsonLdContextResolver;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.serviceproxy.ServiceBinder;
@@ -14,19 +16,26 @@ public class DCATTransformerServiceVerticle extends AbstractVerticle {
     @Override
     public void start(Promise<Void> startPromise) {
 
-        DCATTransformerService.create(new JsonLdContextResolver(vertx), ready -> {
-            if (ready.succeeded()) {
-                ServiceBinder binder = new ServiceBinder(vertx);
-                binder
-                        .setAddress(DCATTransformerService.ADDRESS)
-                        .register(DCATTransformerService.class, ready.result());
-                LOGGER.info("DCATTransformerService successfully started.");
-                startPromise.complete();
+        ConfigSnapshot.load(vertx, ar -> {
+            if (ar.succeeded()) {
+                JsonObject contextConfig = ar.result().getConfig().getJsonObject("JSONLD_CONTEXT_CONFIG", new JsonObject());
+                DCATTransformerService.create(new JsonLdContextResolver(vertx, contextConfig), ready -> {
+                    if (ready.succeeded()) {
+                        ServiceBinder binder = new ServiceBinder(vertx);
+                        binder
+                                .setAddress(DCATTransformerService.ADDRESS)
+                                .register(DCATTransformerService.class, ready.result());
+                        LOGGER.info("DCATTransformerService successfully started.");
+                        startPromise.complete();
+                    } else {
+                        LOGGER.error(ready.cause());
+                        startPromise.fail(ready.cause());
+                    }
+                });
             } else {
-                LOGGER.error(ready.cause());
-                startPromise.fail(ready.cause());
+                LOGGER.error(ar.cause());
+                startPromise.fail(ar.cause());
             }
         });
     }
 }
-
@@ -1,8 +1,6 @@
 package de.fraunhofer.fokus.ids.services.piveauMessageService;
 
-import io.vertx.config.ConfigRetriever;
-import io.vertx.config.ConfigRetrieverOptions;
-import io.vertx.config.ConfigStoreOptions;
+import de.fraunhofer.fokus.ids.utils.ConfigSnapshot;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Promise;
 import io.vertx.core.json.JsonObject;
@@ -18,14 +16,7 @@ public class PiveauMessageServiceVerticle extends AbstractVerticle {
     public void start(Promise<Void> startPromise) {
         WebClient webClient = WebClient.create(vertx);
 
-        ConfigStoreOptions confStore = new ConfigStoreOptions()
-                .setType("env");
-
-        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
-
-        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
-
-        retriever.getConfig(ar -> {
+        ConfigSnapshot.load(vertx, ar -> {
             if (ar.succeeded()) {
                 JsonObject config = ar.result().getJsonObject("PIVEAU_HUB_CONFIG");
                 PiveauMessageService.create(vertx, webClient, config, ready -> {
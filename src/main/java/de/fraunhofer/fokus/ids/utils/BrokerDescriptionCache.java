@@ -0,0 +1,112 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Serialized self-description of the broker, rebuilt only after catalogues have been created or deleted.
+ * Like the QueryResultCache it uses a generation counter, a description built while catalogues changed is not kept.
+ * One instance is shared by all verticles of a Vert.x instance.
+ */
+public class BrokerDescriptionCache implements Shareable {
+
+    private static final String SHARED_MAP = "brokerDescriptionCache";
+    private static final String KEY = "description";
+
+    private long generation;
+    private Description description;
+
+    /**
+     * Serialized description with its strong ETag. The body is shared, callers must not modify it.
+     */
+    public static class Description {
+        private final Buffer body;
+        private final String etag;
+        private final String configKey;
+
+        private Description(Buffer body, String configKey) {
+            this.body = body;
+            this.etag = "\"" + DigestUtils.sha256Hex(body.getBytes()) + "\"";
+            this.configKey = configKey;
+        }
+
+        public Buffer getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @param ifNoneMatch value of an If-None-Match header, may be null
+         * @return true if the header lists the ETag of this description
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String trimmed = tag.trim();
+                if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private BrokerDescriptionCache() {
+    }
+
+    public static BrokerDescriptionCache shared(Vertx vertx) {
+        LocalMap<String, BrokerDescriptionCache> caches = vertx.sharedData().getLocalMap(SHARED_MAP);
+        BrokerDescriptionCache cache = caches.get(KEY);
+        if (cache == null) {
+            BrokerDescriptionCache newCache = new BrokerDescriptionCache();
+            cache = caches.putIfAbsent(KEY, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param configKey the configuration the description has been built from, a description of another configuration is not returned
+     * @return the description or null if it has to be built
+     */
+    public synchronized Description get(String configKey) {
+        return description != null && description.configKey.equals(configKey) ? description : null;
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put} with a description whose catalogues are read now
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Keeps a description unless catalogues changed since its catalogues were read in the given generation.
+     * @return the description with its ETag
+     */
+    public synchronized Description put(Buffer body, String configKey, long buildGeneration) {
+        Description newDescription = new Description(body, configKey);
+        if (buildGeneration == generation) {
+            description = newDescription;
+        }
+        return newDescription;
+    }
+
+    /**
+     * Drops the description, called whenever catalogues have been created or deleted.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        description = null;
+    }
+}
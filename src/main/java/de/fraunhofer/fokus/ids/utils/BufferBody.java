@@ -0,0 +1,49 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Multipart body part backed by a Vert.x Buffer. The content is written without copying it into a String first,
+ * a ResponseOutputStream gets the Buffer itself.
+ */
+public class BufferBody extends AbstractContentBody {
+
+    private final Buffer buffer;
+
+    public BufferBody(Buffer buffer, ContentType contentType) {
+        super(contentType);
+        this.buffer = buffer;
+    }
+
+    @Override
+    public String getFilename() {
+        return null;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (out instanceof ResponseOutputStream) {
+            ((ResponseOutputStream) out).write(buffer);
+            return;
+        }
+        ByteBuf byteBuf = buffer.getByteBuf();
+        byteBuf.getBytes(byteBuf.readerIndex(), out, byteBuf.readableBytes());
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    @Override
+    public long getContentLength() {
+        return buffer.length();
+    }
+}
@@ -0,0 +1,125 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs asynchronous tasks with a bounded number of tasks in flight.
+ * Tasks exceeding the window are queued and started in submission order as soon as a running task completes,
+ * so that large catalogues do not flood the event bus, the piveau hub and the database at once.
+ * A task not completing within the task timeout is failed and its slot released, so a lost reply cannot stall the queue.
+ */
+public class ConcurrencyLimiter {
+
+    private final Vertx vertx;
+    private volatile int maxConcurrency;
+    private final long taskTimeout;
+    private final Queue<Runnable> queue = new ArrayDeque<>();
+    private int active;
+
+    public ConcurrencyLimiter(Vertx vertx, int maxConcurrency) {
+        this(vertx, maxConcurrency, 0);
+    }
+
+    /**
+     * @param taskTimeout time in milliseconds after which a running task is failed, 0 disables the timeout
+     */
+    public ConcurrencyLimiter(Vertx vertx, int maxConcurrency, long taskTimeout) {
+        this.vertx = vertx;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.taskTimeout = taskTimeout;
+    }
+
+    /**
+     * @param task started once a slot is free, has to complete or fail the given promise
+     * @param resultHandler receives the result of the task
+     */
+    public <T> void execute(Handler<Promise<T>> task, Handler<AsyncResult<T>> resultHandler) {
+        Runnable run = () -> {
+            Promise<T> promise = Promise.promise();
+            AtomicBoolean finished = new AtomicBoolean();
+            long timer = taskTimeout > 0
+                    ? vertx.setTimer(taskTimeout, id -> {
+                        if (finished.compareAndSet(false, true)) {
+                            release();
+                            resultHandler.handle(Future.failedFuture(new TimeoutException("Task did not complete within " + taskTimeout + " ms.")));
+                        }
+                    })
+                    : -1;
+            promise.future().setHandler(ar -> {
+                if (finished.compareAndSet(false, true)) {
+                    if (timer != -1) {
+                        vertx.cancelTimer(timer);
+                    }
+                    release();
+                    resultHandler.handle(ar);
+                }
+            });
+            try {
+                task.handle(promise);
+            } catch (Exception e) {
+                promise.tryFail(e);
+            }
+        };
+        boolean start;
+        synchronized (this) {
+            start = active < maxConcurrency;
+            if (start) {
+                active++;
+            } else {
+                queue.add(run);
+            }
+        }
+        if (start) {
+            run.run();
+        }
+    }
+
+    /**
+     * Changes the window. Raising it starts queued tasks right away, lowering it takes effect as running tasks complete.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        List<Runnable> started = new ArrayList<>();
+        synchronized (this) {
+            while (active < this.maxConcurrency && !queue.isEmpty()) {
+                active++;
+                started.add(queue.poll());
+            }
+        }
+        for (Runnable run : started) {
+            vertx.runOnContext(v -> run.run());
+        }
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = active <= maxConcurrency ? queue.poll() : null;
+            if (next == null) {
+                active--;
+            }
+        }
+        if (next != null) {
+            vertx.runOnContext(v -> next.run());
+        }
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,114 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.config.ConfigRetriever;
+import io.vertx.config.ConfigRetrieverOptions;
+import io.vertx.config.ConfigStoreOptions;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Configuration of the broker, retrieved once per Vert.x instance and shared by all verticles and services.
+ * The configuration is read from the environment and, if CONFIG_PATH is set, from that JSON file.
+ * If CONFIG_SCAN_PERIOD is set to a period in milliseconds, the stores are watched and a changed configuration
+ * replaces the snapshot and is passed to the registered change handlers.
+ * The returned JsonObjects are shared, callers must treat them as read-only.
+ */
+public class ConfigSnapshot implements Shareable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigSnapshot.class.getName());
+
+    private static final String SHARED_MAP = "configSnapshot";
+    private static final String KEY = "config";
+
+    private volatile JsonObject config;
+    private final List<Handler<JsonObject>> changeHandlers = new CopyOnWriteArrayList<>();
+
+    private ConfigSnapshot(JsonObject config) {
+        this.config = config;
+    }
+
+    /**
+     * @return the snapshot or null if it has not been loaded yet
+     */
+    public static ConfigSnapshot get(Vertx vertx) {
+        LocalMap<String, ConfigSnapshot> snapshots = vertx.sharedData().getLocalMap(SHARED_MAP);
+        return snapshots.get(KEY);
+    }
+
+    /**
+     * Retrieves the configuration unless it has been loaded before.
+     */
+    public static void load(Vertx vertx, Handler<AsyncResult<ConfigSnapshot>> resultHandler) {
+        ConfigSnapshot loadedSnapshot = get(vertx);
+        if (loadedSnapshot != null) {
+            resultHandler.handle(Future.succeededFuture(loadedSnapshot));
+            return;
+        }
+
+        ConfigRetrieverOptions options = new ConfigRetrieverOptions()
+                .addStore(new ConfigStoreOptions().setType("env"));
+        String configPath = System.getenv("CONFIG_PATH");
+        if (configPath != null) {
+            options.addStore(new ConfigStoreOptions().setType("file").setFormat("json").setOptional(true)
+                    .setConfig(new JsonObject().put("path", configPath)));
+        }
+        long scanPeriod = Long.parseLong(System.getenv().getOrDefault("CONFIG_SCAN_PERIOD", "0"));
+        options.setScanPeriod(scanPeriod);
+
+        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
+        retriever.getConfig(ar -> {
+            if (ar.succeeded()) {
+                LocalMap<String, ConfigSnapshot> snapshots = vertx.sharedData().getLocalMap(SHARED_MAP);
+                ConfigSnapshot newSnapshot = new ConfigSnapshot(ar.result());
+                ConfigSnapshot snapshot = snapshots.putIfAbsent(KEY, newSnapshot);
+                if (snapshot == null && scanPeriod > 0) {
+                    retriever.listen(change -> newSnapshot.update(change.getNewConfiguration()));
+                } else {
+                    retriever.close();
+                }
+                resultHandler.handle(Future.succeededFuture(snapshot != null ? snapshot : newSnapshot));
+            } else {
+                LOGGER.error("Config could not be retrieved.", ar.cause());
+                retriever.close();
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    private void update(JsonObject newConfig) {
+        LOGGER.info("Configuration changed.");
+        config = newConfig;
+        for (Handler<JsonObject> changeHandler : changeHandlers) {
+            changeHandler.handle(newConfig);
+        }
+    }
+
+    /**
+     * @param changeHandler called with the new configuration whenever a watched store changes
+     */
+    public void onChange(Handler<JsonObject> changeHandler) {
+        changeHandlers.add(changeHandler);
+    }
+
+    public JsonObject getConfig() {
+        return config;
+    }
+
+    public JsonObject getJsonObject(String key) {
+        return config.getJsonObject(key);
+    }
+
+    public Integer getInteger(String key) {
+        return config.getInteger(key);
+    }
+}
@@ -0,0 +1,43 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stable fingerprint of a JSON(-LD) serialization. Object members are sorted by name before hashing,
+ * so serializations differing only in member order have the same fingerprint.
+ */
+public class ContentFingerprint {
+
+    private ContentFingerprint() {
+    }
+
+    /**
+     * @return hex encoded SHA-256 of the canonicalized JSON
+     */
+    public static String of(String json) {
+        return DigestUtils.sha256Hex(((JsonObject) canonicalize(new JsonObject(json))).encode());
+    }
+
+    private static Object canonicalize(Object value) {
+        if (value instanceof JsonObject) {
+            JsonObject sorted = new JsonObject(new TreeMap<>());
+            for (Map.Entry<String, Object> member : (JsonObject) value) {
+                sorted.put(member.getKey(), canonicalize(member.getValue()));
+            }
+            return sorted;
+        }
+        if (value instanceof JsonArray) {
+            JsonArray array = new JsonArray();
+            for (Object element : (JsonArray) value) {
+                array.add(canonicalize(element));
+            }
+            return array;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,185 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import de.fraunhofer.fokus.ids.services.authService.AuthAdapterServiceVerticle;
+import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the DAT of the broker for all reply builders of a Vert.x instance.
+ * The token is fetched from the DAPS once and served from memory until shortly before its exp claim.
+ * It is refreshed in the background ahead of expiry, concurrent refreshes share one request to the AuthAdapterService.
+ */
+public class DatTokenCache implements Shareable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatTokenCache.class.getName());
+
+    private static final String SHARED_MAP = "datTokenCache";
+    private static final String KEY = "token";
+
+    private final Vertx vertx;
+    private final AuthAdapterService authAdapterService;
+    private final long refreshMargin;
+    private final long defaultLifetime;
+    private final long retryDelay;
+    private final long expirySkew;
+
+    private String token;
+    private long fetchedAt;
+    private long expiresAt;
+    private long refreshTimer = -1;
+    private List<Handler<AsyncResult<String>>> pendingHandlers;
+
+    private volatile long lastRefreshLatency = -1;
+    private volatile long refreshes;
+    private volatile long refreshFailures;
+
+    private DatTokenCache(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.authAdapterService = AuthAdapterService.createProxy(vertx, AuthAdapterServiceVerticle.ADDRESS);
+        this.refreshMargin = config.getLong("refreshMargin", 60000L);
+        this.defaultLifetime = config.getLong("defaultLifetime", 300000L);
+        this.retryDelay = config.getLong("retryDelay", 5000L);
+        this.expirySkew = config.getLong("expirySkew", 5000L);
+    }
+
+    public static DatTokenCache shared(Vertx vertx) {
+        return shared(vertx, new JsonObject());
+    }
+
+    /**
+     * @param config used if the cache does not exist yet: "refreshMargin" is the time in milliseconds before exp at which
+     *               the token is refreshed, "defaultLifetime" the lifetime assumed for tokens without exp claim
+     *               "retryDelay" the delay of a retry after a failed background refresh and "expirySkew" the time
+     *               before exp at which the token is no longer served
+     */
+    public static DatTokenCache shared(Vertx vertx, JsonObject config) {
+        LocalMap<String, DatTokenCache> caches = vertx.sharedData().getLocalMap(SHARED_MAP);
+        DatTokenCache cache = caches.get(KEY);
+        if (cache == null) {
+            DatTokenCache newCache = new DatTokenCache(vertx, config);
+            cache = caches.putIfAbsent(KEY, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Serves the cached token, a token is only fetched if none is cached or the cached one expired.
+     */
+    public void getToken(Handler<AsyncResult<String>> resultHandler) {
+        String cachedToken;
+        synchronized (this) {
+            cachedToken = token != null && System.currentTimeMillis() < expiresAt ? token : null;
+        }
+        if (cachedToken != null) {
+            resultHandler.handle(Future.succeededFuture(cachedToken));
+        } else {
+            refresh(resultHandler);
+        }
+    }
+
+    private void refresh(Handler<AsyncResult<String>> resultHandler) {
+        synchronized (this) {
+            if (pendingHandlers != null) {
+                pendingHandlers.add(resultHandler);
+                return;
+            }
+            pendingHandlers = new ArrayList<>();
+            pendingHandlers.add(resultHandler);
+        }
+        long start = System.currentTimeMillis();
+        authAdapterService.retrieveToken(reply -> {
+            long now = System.currentTimeMillis();
+            lastRefreshLatency = now - start;
+            List<Handler<AsyncResult<String>>> handlers;
+            synchronized (this) {
+                handlers = pendingHandlers;
+                pendingHandlers = null;
+                if (reply.succeeded()) {
+                    refreshes++;
+                    token = reply.result();
+                    fetchedAt = now;
+                    expiresAt = expiry(token, now);
+                    long delay = Math.max((expiresAt - now) / 2, expiresAt - refreshMargin - now);
+                    if (delay <= 0) {
+                        LOGGER.warn("DAT is served for " + (expiresAt - now) + " ms only, next refresh in " + retryDelay + " ms.");
+                        delay = retryDelay;
+                    }
+                    scheduleRefresh(delay);
+                } else {
+                    refreshFailures++;
+                    if (token != null && now < expiresAt) {
+                        scheduleRefresh(retryDelay);
+                    }
+                }
+            }
+            if (reply.succeeded()) {
+                LOGGER.debug("DAT retrieved in " + lastRefreshLatency + " ms.");
+            } else {
+                LOGGER.error("DAT could not be retrieved.", reply.cause());
+            }
+            for (Handler<AsyncResult<String>> handler : handlers) {
+                handler.handle(reply);
+            }
+        });
+    }
+
+    private void scheduleRefresh(long delay) {
+        if (refreshTimer != -1) {
+            vertx.cancelTimer(refreshTimer);
+        }
+        refreshTimer = vertx.setTimer(Math.max(1, delay), id -> {
+            synchronized (this) {
+                refreshTimer = -1;
+            }
+            refresh(reply -> {});
+        });
+    }
+
+    /**
+     * @return the time the token stops being served, taken from its exp claim
+     */
+    private long expiry(String jwt, long now) {
+        Long exp = JwtClaims.of(jwt).getExpiry();
+        if (exp == null) {
+            LOGGER.warn("exp claim of DAT could not be read.");
+            return now + defaultLifetime;
+        }
+        return exp - expirySkew;
+    }
+
+    /**
+     * @return duration of the last token request in milliseconds, -1 before the first request
+     */
+    public long getLastRefreshLatency() {
+        return lastRefreshLatency;
+    }
+
+    /**
+     * @return age of the cached token in milliseconds, -1 if no token is cached
+     */
+    public synchronized long getTokenAge() {
+        return token != null ? System.currentTimeMillis() - fetchedAt : -1;
+    }
+
+    public long getRefreshes() {
+        return refreshes;
+    }
+
+    public long getRefreshFailures() {
+        return refreshFailures;
+    }
+}
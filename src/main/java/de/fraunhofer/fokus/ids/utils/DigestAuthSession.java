@@ -0,0 +1,81 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP Digest session for one triplestore endpoint.
+ * Keeps the last challenge (realm, nonce, opaque) so that requests can be authorized up front,
+ * and counts the nonce usages as required for qop=auth.
+ */
+class DigestAuthSession {
+
+    private static final Pattern CHALLENGE_PARAMETER = Pattern.compile("(\\w+)\\s*=\\s*(?:\"([^\"]*)\"|([^,\\s]*))");
+
+    private final String digestUri;
+    private final String username;
+    private final String password;
+
+    private String realm;
+    private String nonce;
+    private String opaque;
+    private String ha1;
+    private long nonceCount;
+
+    DigestAuthSession(String digestUri, String username, String password) {
+        this.digestUri = digestUri;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Takes over the parameters of a WWW-Authenticate challenge.
+     * @return false if the header does not contain a Digest challenge
+     */
+    synchronized boolean challenge(String wwwAuthenticate) {
+        if (wwwAuthenticate == null || !wwwAuthenticate.startsWith("Digest ")) {
+            return false;
+        }
+        Map<String, String> values = new HashMap<>();
+        Matcher matcher = CHALLENGE_PARAMETER.matcher(wwwAuthenticate.substring(7));
+        while (matcher.find()) {
+            values.put(matcher.group(1).toLowerCase(), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+        }
+        if (values.get("nonce") == null) {
+            return false;
+        }
+        String challengeRealm = values.get("realm");
+        if (ha1 == null || realm == null || !realm.equals(challengeRealm)) {
+            ha1 = DigestUtils.md5Hex(username + ":" + challengeRealm + ":" + password);
+        }
+        realm = challengeRealm;
+        nonce = values.get("nonce");
+        opaque = values.get("opaque");
+        nonceCount = 0L;
+        return true;
+    }
+
+    /**
+     * @return the Authorization header for the next request or null if no challenge has been received yet
+     */
+    synchronized String authorization(String method) {
+        if (nonce == null) {
+            return null;
+        }
+        byte[] cnonceBytes = new byte[8];
+        ThreadLocalRandom.current().nextBytes(cnonceBytes);
+        String clientNonce = Hex.encodeHexString(cnonceBytes);
+        String nc = String.format("%08x", ++nonceCount);
+        String ha2 = DigestUtils.md5Hex(method + ":" + digestUri);
+        String response = DigestUtils.md5Hex(ha1 + ":" + nonce + ":" + nc + ":" + clientNonce + ":auth:" + ha2);
+        return "Digest username=\"" + username + "\", realm=\"" + realm + "\", nonce=\"" + nonce + "\", uri=\"" + digestUri
+                + "\", cnonce=\"" + clientNonce + "\", nc=" + nc + ", qop=auth, response=\"" + response + "\", algorithm=\"MD5\""
+                + (opaque != null ? ", opaque=\"" + opaque + "\"" : "") + ", state=true";
+    }
+}
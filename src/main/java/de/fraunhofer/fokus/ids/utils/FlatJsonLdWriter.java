@@ -0,0 +1,140 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.vocabulary.XSD;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes triples as flat, expanded JSON-LD in a single pass while they are parsed, without building a graph
+ * or running the JSON-LD compaction algorithm. Consecutive triples of a subject form one node object,
+ * a subject appearing again later, or a property appearing again after another one, starts another node object,
+ * which JSON-LD processors merge.
+ * rdf:type is written as an ordinary property instead of @type, so that literal types need no special case.
+ * If a context IRI is given, it is referenced in the document, all IRIs are written in full nevertheless.
+ */
+public class FlatJsonLdWriter implements StreamRDF {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String XSD_STRING = XSD.xstring.getURI();
+
+    private final OutputStream out;
+    private final String context;
+    private JsonGenerator generator;
+    private Node subject;
+    private Node predicate;
+    private final Set<Node> writtenPredicates = new HashSet<>();
+
+    /**
+     * @param context IRI of a context to reference in the document, may be null
+     */
+    public FlatJsonLdWriter(OutputStream out, String context) {
+        this.out = out;
+        this.context = context;
+    }
+
+    @Override
+    public void start() {
+        try {
+            generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+            generator.writeStartObject();
+            if (context != null) {
+                generator.writeStringField("@context", context);
+            }
+            generator.writeArrayFieldStart("@graph");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        try {
+            if (!triple.getSubject().equals(subject)
+                    || (!triple.getPredicate().equals(predicate) && writtenPredicates.contains(triple.getPredicate()))) {
+                endNode();
+                subject = triple.getSubject();
+                generator.writeStartObject();
+                generator.writeStringField("@id", id(subject));
+            }
+            if (!triple.getPredicate().equals(predicate)) {
+                if (predicate != null) {
+                    generator.writeEndArray();
+                }
+                predicate = triple.getPredicate();
+                writtenPredicates.add(predicate);
+                generator.writeArrayFieldStart(predicate.getURI());
+            }
+            writeObject(triple.getObject());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeObject(Node object) throws IOException {
+        generator.writeStartObject();
+        if (object.isLiteral()) {
+            generator.writeStringField("@value", object.getLiteralLexicalForm());
+            String language = object.getLiteralLanguage();
+            if (language != null && !language.isEmpty()) {
+                generator.writeStringField("@language", language);
+            } else if (!XSD_STRING.equals(object.getLiteralDatatypeURI())) {
+                generator.writeStringField("@type", object.getLiteralDatatypeURI());
+            }
+        } else {
+            generator.writeStringField("@id", id(object));
+        }
+        generator.writeEndObject();
+    }
+
+    private String id(Node node) {
+        return node.isBlank() ? "_:" + node.getBlankNodeLabel() : node.getURI();
+    }
+
+    private void endNode() throws IOException {
+        if (predicate != null) {
+            generator.writeEndArray();
+            predicate = null;
+        }
+        if (subject != null) {
+            generator.writeEndObject();
+            subject = null;
+        }
+        writtenPredicates.clear();
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void base(String base) {
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+    }
+
+    @Override
+    public void finish() {
+        try {
+            endNode();
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of named graphs rendered as JSON-LD, keyed by graph IRI.
+ * Every write to a graph is given a new version from a counter. A rendering is only kept if its graph has not
+ * been written since the version the rendering was read at, so a read overlapping a write never caches stale data.
+ * The write versions of the most recently written graphs are remembered, older ones are folded into one lower bound.
+ * One instance is shared by all verticles of a Vert.x instance.
+ */
+public class GraphRenderingCache implements Shareable {
+
+    private static final String SHARED_MAP = "graphRenderingCache";
+    private static final String KEY = "graphs";
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Map<String, Buffer> renderings = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> writeVersions = new LinkedHashMap<>(16, 0.75f, true);
+    private long version;
+    private long forgottenWriteVersion;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private GraphRenderingCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public static GraphRenderingCache shared(Vertx vertx) {
+        return shared(vertx, new JsonObject());
+    }
+
+    /**
+     * @param config used if the cache does not exist yet: "maxEntries" (default 10000, 0 disables the cache)
+     *               and "maxBytes" of all cached renderings (default 128 MiB)
+     */
+    public static GraphRenderingCache shared(Vertx vertx, JsonObject config) {
+        LocalMap<String, GraphRenderingCache> caches = vertx.sharedData().getLocalMap(SHARED_MAP);
+        GraphRenderingCache cache = caches.get(KEY);
+        if (cache == null) {
+            GraphRenderingCache newCache = new GraphRenderingCache(config.getInteger("maxEntries", 10000), config.getLong("maxBytes", 128L * 1024 * 1024));
+            cache = caches.putIfAbsent(KEY, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return the cached rendering or null if the graph has to be fetched, the Buffer is shared and must not be modified
+     */
+    public synchronized Buffer get(String graph) {
+        Buffer rendering = maxEntries > 0 ? renderings.get(graph) : null;
+        if (rendering == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return rendering;
+    }
+
+    /**
+     * @return the current version, to be passed to {@link #put} with a rendering of a graph fetched now
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Caches a rendering unless the graph has been written since it was fetched at the given version.
+     */
+    public synchronized void put(String graph, Buffer rendering, long readVersion) {
+        Long writeVersion = writeVersions.get(graph);
+        if (maxEntries <= 0 || rendering.length() > maxBytes || (writeVersion != null ? writeVersion : forgottenWriteVersion) > readVersion) {
+            return;
+        }
+        Buffer replaced = renderings.put(graph, rendering);
+        if (replaced != null) {
+            bytes -= replaced.length();
+        }
+        bytes += rendering.length();
+        Iterator<Buffer> eldest = renderings.values().iterator();
+        while ((renderings.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().length();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the rendering of a graph, called whenever the graph has been written.
+     */
+    public synchronized void invalidate(String graph) {
+        Buffer removed = renderings.remove(graph);
+        if (removed != null) {
+            bytes -= removed.length();
+        }
+        writeVersions.put(graph, ++version);
+        Iterator<Long> eldest = writeVersions.values().iterator();
+        while (writeVersions.size() > Math.max(maxEntries, 1) && eldest.hasNext()) {
+            forgottenWriteVersion = Math.max(forgottenWriteVersion, eldest.next());
+            eldest.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return share of lookups answered from the cache, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,240 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size and TTL bounded cache of id mapping rows, looked up by external or by internal id.
+ * Ids without mapping are cached as well, so repeated lookups of unknown ids do not reach the database either.
+ * Besides single mappings the cache keeps the members of groups, e.g. the datasets of a catalogue.
+ * Like the QueryResultCache it uses a generation counter, a row read while the table was written to is not kept,
+ * so a lookup overlapping a write never caches the mapping from before the write.
+ * Cached rows are shared, callers must treat them as read-only.
+ * One instance per table is shared by all managers of a Vert.x instance, so that invalidations of one manager are seen by all.
+ */
+public class IdMappingCache implements Shareable {
+
+    private static final String SHARED_MAP = "idMappingCaches";
+
+    public static final String EXTERNAL_ID = "external_id";
+    public static final String INTERNAL_ID = "internal_id";
+
+    private final int maxSize;
+    private final long ttl;
+    private final Map<String, Entry> byExternalId;
+    private final Map<String, Entry> byInternalId;
+    private final Map<String, Entry> byGroup;
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Cached row of a mapping, row is null if no mapping exists for the id.
+     */
+    public static class Entry {
+        private final JsonObject row;
+        private final long expires;
+
+        private Entry(JsonObject row, long expires) {
+            this.row = row;
+            this.expires = expires;
+        }
+
+        public JsonObject getRow() {
+            return row;
+        }
+    }
+
+    private IdMappingCache(int maxSize, long ttl) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttl = ttl;
+        this.byExternalId = new LinkedHashMap<>(16, 0.75f, true);
+        this.byInternalId = new LinkedHashMap<>(16, 0.75f, true);
+        this.byGroup = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public static IdMappingCache shared(Vertx vertx, String name) {
+        return shared(vertx, name, new JsonObject());
+    }
+
+    /**
+     * @param config used if the cache does not exist yet: "maxSize" entries per direction (default 100000)
+     *               and "ttl" in milliseconds (default 600000)
+     */
+    public static IdMappingCache shared(Vertx vertx, String name, JsonObject config) {
+        LocalMap<String, IdMappingCache> caches = vertx.sharedData().getLocalMap(SHARED_MAP);
+        IdMappingCache cache = caches.get(name);
+        if (cache == null) {
+            IdMappingCache newCache = new IdMappingCache(config.getInteger("maxSize", 100000), config.getLong("ttl", 600000L));
+            cache = caches.putIfAbsent(name, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return the cached entry or null if the id has to be looked up
+     */
+    public Entry getByExternalId(String externalId) {
+        return get(byExternalId, externalId);
+    }
+
+    /**
+     * @return the cached entry or null if the id has to be looked up
+     */
+    public Entry getByInternalId(String internalId) {
+        return get(byInternalId, internalId);
+    }
+
+    /**
+     * @return the cached members of a group or null if the group has to be looked up
+     */
+    public Entry getGroup(String group) {
+        return get(byGroup, group);
+    }
+
+    /**
+     * @return the current generation, to be passed to the put methods with rows read from the database now
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a row in both directions, replacing former mappings of its ids,
+     * unless the table has been written since the row was read in the given generation.
+     */
+    public synchronized void put(JsonObject row, long readGeneration) {
+        if (readGeneration != generation) {
+            return;
+        }
+        removeExternalId(row.getString(EXTERNAL_ID));
+        removeInternalId(row.getString(INTERNAL_ID));
+        Entry entry = new Entry(row, System.currentTimeMillis() + ttl);
+        put(byExternalId, row.getString(EXTERNAL_ID), entry);
+        put(byInternalId, row.getString(INTERNAL_ID), entry);
+    }
+
+    public synchronized void putMissingExternalId(String externalId, long readGeneration) {
+        if (readGeneration == generation) {
+            put(byExternalId, externalId, new Entry(null, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    public synchronized void putMissingInternalId(String internalId, long readGeneration) {
+        if (readGeneration == generation) {
+            put(byInternalId, internalId, new Entry(null, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * @param members internal ids of the members keyed by their external ids
+     */
+    public synchronized void putGroup(String group, JsonObject members, long readGeneration) {
+        if (readGeneration == generation) {
+            put(byGroup, group, new Entry(members, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * Removes an external id and the internal id it was mapped to.
+     */
+    public synchronized void invalidateExternalId(String externalId) {
+        generation++;
+        removeExternalId(externalId);
+    }
+
+    /**
+     * Removes an internal id and the external id it was mapped to.
+     */
+    public synchronized void invalidateInternalId(String internalId) {
+        generation++;
+        removeInternalId(internalId);
+    }
+
+    public synchronized void invalidateGroup(String group) {
+        generation++;
+        byGroup.remove(group);
+    }
+
+    public synchronized void invalidateGroups() {
+        generation++;
+        byGroup.clear();
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        byExternalId.clear();
+        byInternalId.clear();
+        byGroup.clear();
+    }
+
+    private void removeExternalId(String externalId) {
+        Entry entry = byExternalId.remove(externalId);
+        if (entry != null && entry.row != null) {
+            byInternalId.remove(entry.row.getString(INTERNAL_ID));
+        }
+    }
+
+    private void removeInternalId(String internalId) {
+        Entry entry = byInternalId.remove(internalId);
+        if (entry != null && entry.row != null) {
+            byExternalId.remove(entry.row.getString(EXTERNAL_ID));
+        }
+    }
+
+    private synchronized Entry get(Map<String, Entry> entries, String id) {
+        Entry entry = entries.get(id);
+        if (entry != null && entry.expires < System.currentTimeMillis()) {
+            entries.remove(id);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    private void put(Map<String, Entry> entries, String id, Entry entry) {
+        if (id == null) {
+            return;
+        }
+        entries.put(id, entry);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getSize() {
+        return byExternalId.size() + byInternalId.size() + byGroup.size();
+    }
+}
@@ -6,23 +6,113 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Brings the database schema to the latest version. Applied versions are recorded in schema_version,
+ * so every migration runs once. Statements of a migration are idempotent, a migration interrupted by a crash is simply rerun.
+ */
 public class InitService {
 
     private final Logger LOGGER = LoggerFactory.getLogger(InitService.class.getName());
 
     private DatabaseService databaseService;
 
+    private final String SCHEMA_VERSION_TABLE_CREATE_QUERY = "CREATE TABLE IF NOT EXISTS schema_version (version INTEGER PRIMARY KEY, applied_at TIMESTAMP)";
+    private final String SCHEMA_VERSION_QUERY = "SELECT COALESCE(MAX(version), 0) AS version FROM schema_version";
+    private final String SCHEMA_VERSION_INSERT = "INSERT INTO schema_version (version, applied_at) VALUES (?, NOW())";
+
     private final String CATALOGUE_TABLE_CREATE_QUERY = "CREATE TABLE IF NOT EXISTS catalogues (id SERIAL , created_at TIMESTAMP , updated_at TIMESTAMP , internal_id TEXT, external_id TEXT)";
     private final String DATASET_TABLE_CREATE_QUERY = "CREATE TABLE IF NOT EXISTS datasets (id SERIAL , created_at TIMESTAMP , updated_at TIMESTAMP , internal_id TEXT, external_id TEXT)";
 
+    /**
+     * Index i holds the statements of schema version i + 1.
+     * External ids are IRIs of arbitrary length, they are made unique and looked up through the md5 hash in external_id_hash
+     * because long values do not fit into a btree index entry.
+     */
+    private final List<List<String>> MIGRATIONS = Arrays.asList(
+            Arrays.asList(
+                    CATALOGUE_TABLE_CREATE_QUERY,
+                    DATASET_TABLE_CREATE_QUERY),
+            Arrays.asList(
+                    "ALTER TABLE catalogues ADD COLUMN IF NOT EXISTS external_id_hash TEXT",
+                    "ALTER TABLE datasets ADD COLUMN IF NOT EXISTS external_id_hash TEXT",
+                    "UPDATE catalogues SET external_id_hash = md5(external_id) WHERE external_id_hash IS NULL",
+                    "UPDATE datasets SET external_id_hash = md5(external_id) WHERE external_id_hash IS NULL",
+                    "DELETE FROM catalogues a USING catalogues b WHERE a.external_id_hash = b.external_id_hash AND a.id < b.id",
+                    "DELETE FROM catalogues a USING catalogues b WHERE a.internal_id = b.internal_id AND a.id < b.id",
+                    "DELETE FROM datasets a USING datasets b WHERE a.external_id_hash = b.external_id_hash AND a.id < b.id",
+                    "DELETE FROM datasets a USING datasets b WHERE a.internal_id = b.internal_id AND a.id < b.id",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS catalogues_external_id_hash_idx ON catalogues (external_id_hash)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS catalogues_internal_id_idx ON catalogues (internal_id)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS datasets_external_id_hash_idx ON datasets (external_id_hash)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS datasets_internal_id_idx ON datasets (internal_id)"),
+            Arrays.asList(
+                    "ALTER TABLE datasets ADD COLUMN IF NOT EXISTS catalogue_internal_id TEXT REFERENCES catalogues (internal_id) ON UPDATE CASCADE ON DELETE CASCADE",
+                    "CREATE INDEX IF NOT EXISTS datasets_catalogue_internal_id_idx ON datasets (catalogue_internal_id)"),
+            Arrays.asList(
+                    "ALTER TABLE datasets ADD COLUMN IF NOT EXISTS content_hash TEXT"));
+
     public InitService(Vertx vertx){
         this.databaseService = DatabaseService.createProxy(vertx, "databaseService");
     }
 
     public void initDatabase(Handler<AsyncResult<Void>> resultHandler){
-        databaseService.update(CATALOGUE_TABLE_CREATE_QUERY, new JsonArray(), reply -> {});
-        databaseService.update(DATASET_TABLE_CREATE_QUERY, new JsonArray(), reply -> {});
-        resultHandler.handle(Future.succeededFuture());
+        databaseService.update(SCHEMA_VERSION_TABLE_CREATE_QUERY, new JsonArray(), tableReply -> {
+            if (tableReply.failed()) {
+                LOGGER.error(tableReply.cause());
+                resultHandler.handle(Future.failedFuture(tableReply.cause()));
+                return;
+            }
+            databaseService.query(SCHEMA_VERSION_QUERY, new JsonArray(), versionReply -> {
+                if (versionReply.succeeded()) {
+                    int version = ((Number) versionReply.result().get(0).getValue("version")).intValue();
+                    migrate(version, resultHandler);
+                } else {
+                    LOGGER.error(versionReply.cause());
+                    resultHandler.handle(Future.failedFuture(versionReply.cause()));
+                }
+            });
+        });
+    }
+
+    private void migrate(int version, Handler<AsyncResult<Void>> resultHandler) {
+        if (version >= MIGRATIONS.size()) {
+            LOGGER.info("Database schema is at version " + version + ".");
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        int nextVersion = version + 1;
+        LOGGER.info("Migrating database schema to version " + nextVersion + ".");
+        execute(MIGRATIONS.get(version), 0, migrationReply -> {
+            if (migrationReply.succeeded()) {
+                databaseService.update(SCHEMA_VERSION_INSERT, new JsonArray().add(nextVersion), versionReply -> {
+                    if (versionReply.succeeded()) {
+                        migrate(nextVersion, resultHandler);
+                    } else {
+                        LOGGER.error(versionReply.cause());
+                        resultHandler.handle(Future.failedFuture(versionReply.cause()));
+                    }
+                });
+            } else {
+                LOGGER.error("Migration to schema version " + nextVersion + " failed.", migrationReply.cause());
+                resultHandler.handle(Future.failedFuture(migrationReply.cause()));
+            }
+        });
+    }
+
+    private void execute(List<String> statements, int index, Handler<AsyncResult<Void>> resultHandler) {
+        if (index >= statements.size()) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        databaseService.update(statements.get(index), new JsonArray(), reply -> {
+            if (reply.succeeded()) {
+                execute(statements, index + 1, resultHandler);
+            } else {
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
     }
 }
@@ -5,34 +5,147 @@ import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.client.WebClient;
+import org.apache.commons.io.IOUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Resolves the IDS infomodel JSON-LD context.
+ * The parsed context is kept in memory and shared by all callers, so it is fetched at most once per refresh interval.
+ * A copy bundled on the classpath under jsonld-context/{version}/context.jsonld, or a local file configured instead,
+ * is used as the initial value, which allows the broker to work without reaching the remote context host at all.
+ * Callers must treat the returned JsonObject as read-only.
+ */
 public class JsonLdContextResolver {
 
+    private final Logger LOGGER = LoggerFactory.getLogger(JsonLdContextResolver.class.getName());
+
+    private static final String DEFAULT_CONTEXT_VERSION = "3.0.0";
+    private static final String CONTEXT_URL_TEMPLATE = "https://jira.iais.fraunhofer.de/stash/projects/ICTSL/repos/ids-infomodel-commons/raw/jsonld-context/%s/context.jsonld";
+    private static final String BUNDLED_CONTEXT_TEMPLATE = "jsonld-context/%s/context.jsonld";
+
     WebClient webClient;
     private URL SUPPORTED_CONTEXT_URL;
+    private String contextVersion;
+    private volatile JsonObject context;
+    private List<Handler<AsyncResult<JsonObject>>> pendingHandlers;
 
     public JsonLdContextResolver(Vertx vertx){
+        this(vertx, new JsonObject());
+    }
+
+    /**
+     * @param config optional settings: "version" of the infomodel context, "url" to fetch it from,
+     *               "file" with a local copy of the context overriding the bundled one
+     *               and "refreshInterval" in milliseconds for background refreshes (0 disables refreshing)
+     */
+    public JsonLdContextResolver(Vertx vertx, JsonObject config){
         webClient =  WebClient.create(vertx);
+        contextVersion = config.getString("version", DEFAULT_CONTEXT_VERSION);
         try {
-            SUPPORTED_CONTEXT_URL =  new URL("https://jira.iais.fraunhofer.de/stash/projects/ICTSL/repos/ids-infomodel-commons/raw/jsonld-context/3.0.0/context.jsonld");
+            SUPPORTED_CONTEXT_URL =  new URL(config.getString("url", String.format(CONTEXT_URL_TEMPLATE, contextVersion)));
         } catch (MalformedURLException e) {
             e.printStackTrace();
         }
+        String file = config.getString("file");
+        context = file != null ? loadLocalContext(vertx, file) : loadBundledContext();
+
+        long refreshInterval = config.getLong("refreshInterval", 0L);
+        if (refreshInterval > 0) {
+            vertx.setPeriodic(refreshInterval, id -> fetch(ar -> {
+                if (ar.failed()) {
+                    LOGGER.warn("Refreshing JSON-LD context " + contextVersion + " failed.", ar.cause());
+                }
+            }));
+        }
     }
 
     public void resolve(Handler<AsyncResult<JsonObject>> resultHandler){
-        webClient.get(80, SUPPORTED_CONTEXT_URL.getHost(), SUPPORTED_CONTEXT_URL.getPath())
+        JsonObject cachedContext = context;
+        if (cachedContext != null) {
+            resultHandler.handle(Future.succeededFuture(cachedContext));
+        } else {
+            fetch(resultHandler);
+        }
+    }
+
+    private JsonObject loadLocalContext(Vertx vertx, String file) {
+        try {
+            JsonObject localContext = new JsonObject(vertx.fileSystem().readFileBlocking(file));
+            LOGGER.info("Using local JSON-LD context " + file);
+            return localContext;
+        } catch (Exception e) {
+            LOGGER.error("Local JSON-LD context " + file + " could not be read, falling back to the bundled context.", e);
+            return loadBundledContext();
+        }
+    }
+
+    private JsonObject loadBundledContext() {
+        String path = String.format(BUNDLED_CONTEXT_TEMPLATE, contextVersion);
+        try (InputStream inputStream = JsonLdContextResolver.class.getClassLoader().getResourceAsStream(path)) {
+            if (inputStream != null) {
+                LOGGER.info("Using bundled JSON-LD context " + path);
+                return new JsonObject(IOUtils.toString(inputStream, StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            LOGGER.error("Bundled JSON-LD context " + path + " could not be read.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the remote context. Concurrent calls share one in-flight request.
+     * If the request fails while a context is already known, the known context is kept and returned.
+     */
+    private void fetch(Handler<AsyncResult<JsonObject>> resultHandler) {
+        synchronized (this) {
+            if (pendingHandlers != null) {
+                pendingHandlers.add(resultHandler);
+                return;
+            }
+            pendingHandlers = new ArrayList<>();
+            pendingHandlers.add(resultHandler);
+        }
+        webClient.getAbs(SUPPORTED_CONTEXT_URL.toString())
                 .putHeader("Accept", "application/json")
                 .send(ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
+                    AsyncResult<JsonObject> result;
+                    if (ar.succeeded() && ar.result().statusCode() == 200) {
+                        try {
+                            context = ar.result().bodyAsJsonObject();
+                            result = Future.succeededFuture(context);
+                        } catch (Exception e) {
+                            result = fallback(e);
+                        }
                     } else {
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
+                        result = fallback(ar.succeeded() ? new IOException("Context request answered with status " + ar.result().statusCode()) : ar.cause());
+                    }
+                    List<Handler<AsyncResult<JsonObject>>> handlers;
+                    synchronized (this) {
+                        handlers = pendingHandlers;
+                        pendingHandlers = null;
+                    }
+                    for (Handler<AsyncResult<JsonObject>> handler : handlers) {
+                        handler.handle(result);
                     }
         });
     }
+
+    private AsyncResult<JsonObject> fallback(Throwable cause) {
+        JsonObject cachedContext = context;
+        if (cachedContext != null) {
+            LOGGER.warn("JSON-LD context could not be fetched, keeping cached version " + contextVersion + ".", cause);
+            return Future.succeededFuture(cachedContext);
+        }
+        return Future.failedFuture(cause);
+    }
 }
@@ -0,0 +1,46 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Reads the claims of a JWT. The signature is not verified, this is left to the DAPS.
+ */
+public class JwtClaims {
+
+    private final JsonObject claims;
+
+    private JwtClaims(JsonObject claims) {
+        this.claims = claims;
+    }
+
+    /**
+     * @return the claims of the token, empty if it is no JWT
+     */
+    public static JwtClaims of(String jwt) {
+        try {
+            String[] parts = jwt.split("\\.");
+            return new JwtClaims(new JsonObject(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            return new JwtClaims(new JsonObject());
+        }
+    }
+
+    /**
+     * @return the sub claim or null if the token has none
+     */
+    public String getSubject() {
+        Object sub = claims.getValue("sub");
+        return sub instanceof String ? (String) sub : null;
+    }
+
+    /**
+     * @return the exp claim in milliseconds since the epoch or null if the token has none
+     */
+    public Long getExpiry() {
+        Object exp = claims.getValue("exp");
+        return exp instanceof Number ? ((Number) exp).longValue() * 1000 : null;
+    }
+}
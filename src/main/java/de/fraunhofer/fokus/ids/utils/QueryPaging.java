@@ -0,0 +1,162 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.SortCondition;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.ExprVar;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Splits the results of SELECT queries into pages of pageSize solutions, fetched from the triplestore one at a time.
+ * A page is the admitted query with rewritten LIMIT and OFFSET. Queries without ORDER BY are ordered by their projected variables,
+ * so that consecutive pages neither overlap nor skip solutions, as long as blank nodes keep their labels between executions
+ * (Virtuoso's nodeID:// labels do). Such queries are only paged if "implicitOrder" is enabled.
+ * Every page is a new execution of the query: the triplestore sorts the solutions up to the end of the page again,
+ * so the cost of a page grows with its offset, bounded by the LIMIT of the SparqlAdmission.
+ * The continuation token of a page carries the query and the offset of the next page, the broker keeps no state between pages.
+ */
+public class QueryPaging {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public static final String CONTINUATION_PREFIX = "urn:odb-manager:query-continuation:";
+
+    private final long pageSize;
+    private final boolean implicitOrder;
+
+    /**
+     * One page of a query, created by {@link #page}.
+     */
+    public class Page {
+        private final String query;
+        private final String pageQuery;
+        private final long offset;
+        private final long pageLimit;
+        private final long totalLimit;
+
+        private Page(String query, String pageQuery, long offset, long pageLimit, long totalLimit) {
+            this.query = query;
+            this.pageQuery = pageQuery;
+            this.offset = offset;
+            this.pageLimit = pageLimit;
+            this.totalLimit = totalLimit;
+        }
+
+        /**
+         * @return the query to send to the triplestore for this page
+         */
+        public String getPageQuery() {
+            return pageQuery;
+        }
+
+        /**
+         * @return the continuation token of the next page or null if this is the last page
+         * @throws IllegalStateException if the solutions of the result could not be counted
+         */
+        public String continuation(Buffer results) {
+            if (pageLimit < 0) {
+                return null;
+            }
+            long solutions = countSolutions(results);
+            if (solutions < pageLimit || offset + solutions >= totalLimit) {
+                return null;
+            }
+            JsonObject token = new JsonObject().put("query", query).put("offset", offset + solutions);
+            return CONTINUATION_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(token.toBuffer().getBytes());
+        }
+    }
+
+    /**
+     * @param config "pageSize" in solutions (default 1000, 0 disables paging) and "implicitOrder" to page queries
+     *               without ORDER BY by ordering them by their projected variables (default true)
+     */
+    public QueryPaging(JsonObject config) {
+        this.pageSize = config.getLong("pageSize", 1000L);
+        this.implicitOrder = config.getBoolean("implicitOrder", true);
+    }
+
+    public static boolean isContinuation(String payload) {
+        return payload.startsWith(CONTINUATION_PREFIX);
+    }
+
+    /**
+     * @return the query and offset carried by a continuation token
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static JsonObject decodeContinuation(String token) {
+        try {
+            String encoded = token.substring(CONTINUATION_PREFIX.length()).trim();
+            JsonObject continuation = new JsonObject(new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8));
+            if (continuation.getString("query") == null || continuation.getLong("offset", -1L) < 0) {
+                throw new IllegalArgumentException("Continuation token is incomplete.");
+            }
+            return continuation;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Continuation token is malformed.");
+        }
+    }
+
+    /**
+     * @param admittedQuery a query that passed the SparqlAdmission, its LIMIT bounds all pages together
+     * @param offset number of solutions returned by the previous pages
+     */
+    public Page page(String admittedQuery, long offset) {
+        Query query = QueryFactory.create(admittedQuery);
+        if (!query.isSelectType() || pageSize <= 0 || (!query.hasOrderBy() && !implicitOrder)) {
+            return new Page(admittedQuery, admittedQuery, 0, -1, -1);
+        }
+        long totalLimit = query.hasLimit() ? query.getLimit() : Long.MAX_VALUE;
+        long baseOffset = query.hasOffset() ? query.getOffset() : 0;
+        long pageLimit = Math.max(0, Math.min(pageSize, totalLimit - offset));
+        if (!query.hasOrderBy()) {
+            for (Var var : query.getProjectVars()) {
+                query.addOrderBy(new SortCondition(new ExprVar(var), Query.ORDER_DEFAULT));
+            }
+        }
+        query.setLimit(pageLimit);
+        query.setOffset(baseOffset + offset);
+        return new Page(admittedQuery, query.serialize(), offset, pageLimit, totalLimit);
+    }
+
+    /**
+     * Counts the solutions of a SPARQL JSON result while streaming over it, without building a tree.
+     * @throws IllegalStateException if the result is no SPARQL JSON result
+     */
+    private static long countSolutions(Buffer results) {
+        try (JsonParser parser = JSON_FACTORY.createParser(results.getBytes())) {
+            int depth = 0;
+            boolean inBindings = false;
+            long solutions = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    depth++;
+                    if (inBindings && token == JsonToken.START_OBJECT && depth == 4) {
+                        solutions++;
+                    }
+                } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                    depth--;
+                    if (inBindings && depth < 3) {
+                        return solutions;
+                    }
+                } else if (token == JsonToken.FIELD_NAME && depth == 2 && "bindings".equals(parser.getCurrentName())) {
+                    inBindings = true;
+                }
+            }
+            throw new IllegalStateException("Result has no bindings.");
+        } catch (IOException e) {
+            throw new IllegalStateException("Solutions of the result could not be counted.", e);
+        }
+    }
+}
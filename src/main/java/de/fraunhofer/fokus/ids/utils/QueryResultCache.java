@@ -0,0 +1,200 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of SPARQL query results, keyed by the normalized query text and the requested media type.
+ * Every write to the triplestore increments a generation counter and drops all results. A result is only cached if
+ * no write completed while it was queried, so results read before a write are never served after it.
+ * One instance is shared by all verticles of a Vert.x instance.
+ */
+public class QueryResultCache implements Shareable {
+
+    private static final String SHARED_MAP = "queryResultCache";
+    private static final String KEY = "results";
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Map<String, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong generation = new AtomicLong();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Cached response body of a query, shared by all callers, who must not modify it.
+     */
+    public static class Result {
+        private final Buffer body;
+        private final String contentType;
+
+        public Result(Buffer body, String contentType) {
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        public Buffer getBody() {
+            return body;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private QueryResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public static QueryResultCache shared(Vertx vertx) {
+        return shared(vertx, new JsonObject());
+    }
+
+    /**
+     * @param config used if the cache does not exist yet: "maxEntries" (default 1000, 0 disables the cache)
+     *               and "maxBytes" of all cached bodies (default 64 MiB)
+     */
+    public static QueryResultCache shared(Vertx vertx, JsonObject config) {
+        LocalMap<String, QueryResultCache> caches = vertx.sharedData().getLocalMap(SHARED_MAP);
+        QueryResultCache cache = caches.get(KEY);
+        if (cache == null) {
+            QueryResultCache newCache = new QueryResultCache(config.getInteger("maxEntries", 1000), config.getLong("maxBytes", 64L * 1024 * 1024));
+            cache = caches.putIfAbsent(KEY, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return the key of a query, whitespace outside of literals, IRIs and comments is collapsed
+     */
+    public static String key(String query, String accept) {
+        StringBuilder key = new StringBuilder(query.length() + 32);
+        int length = query.length();
+        boolean space = false;
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (space && key.length() > 0) {
+                key.append(' ');
+            }
+            space = false;
+            int end;
+            if (c == '"' || c == '\'') {
+                end = endOfLiteral(query, i);
+            } else if (c == '#') {
+                int newline = query.indexOf('\n', i);
+                end = newline == -1 ? length : newline + 1;
+            } else if (c == '<') {
+                int close = query.indexOf('>', i);
+                end = close == -1 ? i + 1 : close + 1;
+            } else {
+                end = i + 1;
+            }
+            key.append(query, i, end);
+            i = end;
+        }
+        return key.append('\n').append(accept).toString();
+    }
+
+    private static int endOfLiteral(String query, int start) {
+        char quote = query.charAt(start);
+        boolean longLiteral = query.startsWith(new String(new char[]{quote, quote, quote}), start);
+        int i = start + (longLiteral ? 3 : 1);
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote && (!longLiteral || query.startsWith(new String(new char[]{quote, quote, quote}), i))) {
+                return i + (longLiteral ? 3 : 1);
+            } else {
+                i++;
+            }
+        }
+        return query.length();
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put} with the result of a query started now
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the cached result or null if the query has to be sent to the triplestore
+     */
+    public synchronized Result get(String key) {
+        Result result = maxEntries > 0 ? results.get(key) : null;
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Caches a result unless the triplestore was written to since the query was started in the given generation.
+     */
+    public synchronized void put(String key, Result result, long queryGeneration) {
+        if (maxEntries <= 0 || queryGeneration != generation.get() || result.body.length() > maxBytes) {
+            return;
+        }
+        Result replaced = results.put(key, result);
+        if (replaced != null) {
+            bytes -= replaced.body.length();
+        }
+        bytes += result.body.length();
+        Iterator<Result> eldest = results.values().iterator();
+        while ((results.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().body.length();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Starts a new generation and drops all results, called whenever the triplestore has been written to.
+     */
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        results.clear();
+        bytes = 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+}
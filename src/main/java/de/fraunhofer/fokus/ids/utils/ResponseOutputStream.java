@@ -0,0 +1,99 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * OutputStream writing to a chunked HttpServerResponse. Small writes are collected into chunks of chunkSize bytes,
+ * Buffers passed to {@link #write(Buffer)} are handed to the response as slices of chunkSize bytes without copying.
+ * Chunks are only written while the write queue of the response is not full, the remaining chunks are written
+ * from its drain handler, so a slow client does not make the outbound queue grow with the size of the response.
+ * Closing the stream ends the response once all chunks are written.
+ */
+public class ResponseOutputStream extends OutputStream {
+
+    private final HttpServerResponse response;
+    private final int chunkSize;
+    private final Deque<Buffer> pending = new ArrayDeque<>();
+    private Buffer chunk;
+    private boolean closed;
+    private boolean responseClosed;
+
+    public ResponseOutputStream(HttpServerResponse response, int chunkSize) {
+        this.response = response;
+        this.chunkSize = chunkSize;
+        this.chunk = Buffer.buffer(chunkSize);
+        response.setChunked(true);
+        response.closeHandler(v -> {
+            responseClosed = true;
+            pending.clear();
+        });
+    }
+
+    @Override
+    public void write(int b) {
+        chunk.appendByte((byte) b);
+        if (chunk.length() >= chunkSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            int length = Math.min(len, chunkSize - chunk.length());
+            chunk.appendBytes(b, off, length);
+            off += length;
+            len -= length;
+            if (chunk.length() >= chunkSize) {
+                flush();
+            }
+        }
+    }
+
+    public void write(Buffer buffer) {
+        enqueueChunk();
+        for (int start = 0; start < buffer.length(); start += chunkSize) {
+            pending.add(buffer.slice(start, Math.min(start + chunkSize, buffer.length())));
+        }
+        drain();
+    }
+
+    @Override
+    public void flush() {
+        enqueueChunk();
+        drain();
+    }
+
+    @Override
+    public void close() {
+        enqueueChunk();
+        closed = true;
+        drain();
+    }
+
+    private void enqueueChunk() {
+        if (chunk.length() > 0) {
+            pending.add(chunk);
+            chunk = Buffer.buffer(chunkSize);
+        }
+    }
+
+    private void drain() {
+        if (responseClosed) {
+            return;
+        }
+        while (!pending.isEmpty() && !response.writeQueueFull()) {
+            response.write(pending.poll());
+        }
+        if (!pending.isEmpty()) {
+            response.drainHandler(v -> drain());
+        } else if (closed) {
+            response.end();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.json.JsonObject;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.OpVisitorBase;
+import org.apache.jena.sparql.algebra.op.OpService;
+import org.apache.jena.sparql.algebra.walker.Walker;
+import org.apache.jena.update.UpdateFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Admission control for SPARQL queries of consumer connectors, applied before a query reaches the triplestore.
+ * Queries are parsed with ARQ, updates and federated queries are rejected and the number of results is limited.
+ * The number of queries running at the same time is capped per issuer and for all issuers together.
+ */
+public class SparqlAdmission {
+
+    private final int maxQueryLength;
+    private final long maxLimit;
+    private final long timeout;
+    private final int maxConcurrentQueries;
+    private final int maxTotalConcurrentQueries;
+    private final Map<String, Integer> runningQueries = new HashMap<>();
+    private int totalRunningQueries;
+
+    /**
+     * @param config "maxQueryLength" in characters (default 20000), "maxLimit" of results (default 10000),
+     *               "timeout" per query in milliseconds (default 30000), "maxConcurrentQueries" per issuer (default 4)
+     *               and "maxTotalConcurrentQueries" of all issuers (default 16)
+     */
+    public SparqlAdmission(JsonObject config) {
+        this.maxQueryLength = config.getInteger("maxQueryLength", 20000);
+        this.maxLimit = config.getLong("maxLimit", 10000L);
+        this.timeout = config.getLong("timeout", 30000L);
+        this.maxConcurrentQueries = config.getInteger("maxConcurrentQueries", 4);
+        this.maxTotalConcurrentQueries = config.getInteger("maxTotalConcurrentQueries", 16);
+    }
+
+    /**
+     * @return the query to send to the triplestore, with a LIMIT of at most maxLimit
+     * @throws IllegalArgumentException with the reason if the query is not admitted
+     */
+    public String admit(String queryString) {
+        if (queryString.length() > maxQueryLength) {
+            throw new IllegalArgumentException("Query exceeds " + maxQueryLength + " characters.");
+        }
+        Query query;
+        try {
+            query = QueryFactory.create(queryString);
+        } catch (QueryParseException e) {
+            if (isUpdate(queryString)) {
+                throw new IllegalArgumentException("SPARQL updates are not accepted.");
+            }
+            throw new IllegalArgumentException("Query could not be parsed: " + e.getMessage());
+        }
+        if (query.getQueryPattern() != null && containsService(query)) {
+            throw new IllegalArgumentException("Federated queries are not accepted.");
+        }
+        if (!query.isAskType() && (!query.hasLimit() || query.getLimit() > maxLimit)) {
+            query.setLimit(maxLimit);
+        }
+        return query.serialize();
+    }
+
+    private boolean isUpdate(String queryString) {
+        try {
+            UpdateFactory.create(queryString);
+            return true;
+        } catch (QueryParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Looks for SERVICE anywhere in the compiled query, including sub-SELECTs and EXISTS / NOT EXISTS patterns
+     * of FILTER, BIND, projection and HAVING expressions.
+     */
+    private boolean containsService(Query query) {
+        boolean[] service = {false};
+        Walker.walk(Algebra.compile(query), new OpVisitorBase() {
+            @Override
+            public void visit(OpService opService) {
+                service[0] = true;
+            }
+        });
+        return service[0];
+    }
+
+    /**
+     * @return false if the issuer already runs maxConcurrentQueries queries or all issuers run maxTotalConcurrentQueries,
+     *         otherwise the query is counted until {@link #release}
+     */
+    public synchronized boolean acquire(String issuer) {
+        int running = runningQueries.getOrDefault(issuer, 0);
+        if (running >= maxConcurrentQueries || totalRunningQueries >= maxTotalConcurrentQueries) {
+            return false;
+        }
+        runningQueries.put(issuer, running + 1);
+        totalRunningQueries++;
+        return true;
+    }
+
+    public synchronized void release(String issuer) {
+        totalRunningQueries--;
+        int running = runningQueries.getOrDefault(issuer, 0) - 1;
+        if (running > 0) {
+            runningQueries.put(issuer, running);
+        } else {
+            runningQueries.remove(issuer);
+        }
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+}
@@ -14,32 +14,51 @@ import io.vertx.ext.web.client.HttpRequest;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.circuitbreaker.CircuitBreaker;
-import org.apache.commons.codec.digest.DigestUtils;
+import io.netty.buffer.ByteBufInputStream;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFParser;
-import org.apache.jena.riot.RDFParserBuilder;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.sparql.modify.request.QuadDataAcc;
+import org.apache.jena.sparql.modify.request.UpdateDataInsert;
+import org.apache.jena.sparql.modify.request.UpdateDrop;
+import org.apache.jena.update.UpdateRequest;
+
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TSConnector {
     private WebClient client;
     private final Logger LOGGER = LoggerFactory.getLogger(TSConnector.class.getName());
+    private static final long QUERY_TIMEOUT_MARGIN = 5000;
 
     private String uri;
-    private Map<String, String> values = new HashMap();
+    private Map<String, DigestAuthSession> authSessions = new ConcurrentHashMap<>();
+    private AtomicLong challengeRoundTrips = new AtomicLong();
+    private Map<String, List<Handler<AsyncResult<Buffer>>>> pendingGraphReads = new HashMap<>();
+    private Map<String, List<Handler<AsyncResult<HttpResponse<Buffer>>>>> pendingQueries = new HashMap<>();
+    private AtomicLong coalescedCallers = new AtomicLong();
+    private AtomicLong writes = new AtomicLong();
 
     private String username;
     private String password;
     private String dataEndpoint;
     private String queryEndpoint;
+    private String updateEndpoint;
+    private boolean flatJsonLd;
+    private String jsonLdContext;
 
     private CircuitBreaker breaker;
 
@@ -55,6 +74,9 @@ public class TSConnector {
         this.password = config.getString("password");
         this.dataEndpoint = config.getString("dataEndpoint", "/sparql-graph-crud-auth");
         this.queryEndpoint = config.getString("queryEndpoint", "/sparql");
+        this.updateEndpoint = config.getString("updateEndpoint", "/sparql-auth");
+        this.flatJsonLd = "flat".equals(config.getString("jsonLdOutput", "compact"));
+        this.jsonLdContext = config.getString("jsonLdContext");
     }
 
     public static Lang mimeTypeToLang(String dataMimeType) {
@@ -126,23 +148,48 @@ public class TSConnector {
         return lang;
     }
 
-    public void getGraph(String graphName, Handler<AsyncResult<String>> handler) {
+    /**
+     * Fetches a named graph and renders it as JSON-LD.
+     * The N-Triples response is parsed straight from the response buffer into the graph, without IRI checking,
+     * and the JSON-LD output is written directly into the returned Buffer.
+     * With jsonLdOutput "flat" the triples are written as flat JSON-LD while they are parsed, otherwise compacted JSON-LD is written.
+     * Concurrent calls for the same graph share one request and the rendered Buffer, callers must not modify it.
+     */
+    public void getGraph(String graphName, Handler<AsyncResult<Buffer>> handler) {
+        String key = writes.get() + "\n" + graphName;
+        if (join(pendingGraphReads, key, handler)) {
+            return;
+        }
+        fetchGraph(graphName, result -> complete(pendingGraphReads, key, result));
+    }
+
+    private void fetchGraph(String graphName, Handler<AsyncResult<Buffer>> handler) {
         HttpRequest<Buffer> request = client
                 .getAbs(uri + dataEndpoint)
                 .putHeader("Accept", "application/n-triples")
                 .addQueryParam("graph", graphName);
 
         Promise<HttpResponse<Buffer>> responsePromise = Promise.promise();
-        send(request, HttpMethod.GET, responsePromise);
+        send(request, dataEndpoint, HttpMethod.GET, responsePromise);
 
         responsePromise.future().setHandler(ar -> {
             if (ar.succeeded()) {
-                try (ByteArrayOutputStream baos = new ByteArrayOutputStream()){
-                    Model model = ModelFactory.createDefaultModel();
-                    RDFParserBuilder builder = RDFParser.create().source(new ByteArrayInputStream(ar.result().body().getBytes())).lang((Lang)mimeTypeToLang("application/n-triples"));
-                    builder.parse(model);
-                    model.write(baos, "JSON-LD");
-                    handler.handle(Future.succeededFuture(baos.toString()));
+                Buffer body = ar.result().body() != null ? ar.result().body() : Buffer.buffer();
+                try (InputStream in = new ByteBufInputStream(body.getByteBuf());
+                     BufferOutputStream out = new BufferOutputStream(Buffer.buffer(body.length()))){
+                    RDFParser parser = RDFParser.create()
+                            .source(in)
+                            .lang(mimeTypeToLang("application/n-triples"))
+                            .checking(false)
+                            .build();
+                    if (flatJsonLd) {
+                        parser.parse(new FlatJsonLdWriter(out, jsonLdContext));
+                    } else {
+                        Graph graph = GraphFactory.createDefaultGraph();
+                        parser.parse(StreamRDFLib.graph(graph));
+                        RDFDataMgr.write(out, graph, Lang.JSONLD);
+                    }
+                    handler.handle(Future.succeededFuture(out.getBuffer()));
                 } catch (Exception e) {
                     handler.handle(Future.failedFuture(e));
                 }
@@ -159,9 +206,10 @@ public class TSConnector {
 
         Promise<HttpResponse<Buffer>> responsePromise = Promise.promise();
 
-        send(request, HttpMethod.DELETE, responsePromise);
+        send(request, dataEndpoint, HttpMethod.DELETE, responsePromise);
 
         responsePromise.future().setHandler(ar -> {
+            writes.incrementAndGet();
             if (ar.succeeded()) {
                 LOGGER.info("Delete graph succeeded : "+graphName);
                 handler.handle(Future.succeededFuture());
@@ -181,9 +229,35 @@ public class TSConnector {
         RDFDataMgr.write(writer, model, Lang.NTRIPLES);
         String output = writer.toString();
 
+        write(request, dataEndpoint, HttpMethod.PUT, Buffer.buffer(output), handler);
+    }
+
+    /**
+     * Replaces several named graphs with one SPARQL update request.
+     * All graphs are dropped and re-inserted, which gives the same result as one putGraph call per graph.
+     */
+    public void putGraphs(Map<String, Model> graphs, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
+        UpdateRequest updateRequest = new UpdateRequest();
+        QuadDataAcc quads = new QuadDataAcc();
+        for (Map.Entry<String, Model> graph : graphs.entrySet()) {
+            Node graphNode = NodeFactory.createURI(graph.getKey());
+            updateRequest.add(new UpdateDrop(graphNode, true));
+            graph.getValue().getGraph().find().forEachRemaining(triple -> quads.addQuad(new Quad(graphNode, triple)));
+        }
+        // a single INSERT DATA operation, blank node labels must not be reused across operations
+        updateRequest.add(new UpdateDataInsert(quads));
+        HttpRequest<Buffer> request = client
+                .postAbs(uri + updateEndpoint)
+                .putHeader("Content-Type", "application/sparql-update");
+
+        write(request, updateEndpoint, HttpMethod.POST, Buffer.buffer(updateRequest.toString()), handler);
+    }
+
+    private void write(HttpRequest<Buffer> request, String endpoint, HttpMethod method, Buffer buffer, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
         if (breaker != null) {
-            breaker.<HttpResponse<Buffer>>execute(promise -> sendBuffer(request, HttpMethod.PUT, Buffer.buffer(output), promise))
+            breaker.<HttpResponse<Buffer>>execute(promise -> sendBuffer(request, endpoint, method, buffer, promise))
                     .setHandler(ar -> {
+                        writes.incrementAndGet();
                         if (ar.succeeded()) {
                             LOGGER.info("send buffer to viruoso succeeded");
                             handler.handle(Future.succeededFuture(ar.result()));
@@ -194,8 +268,9 @@ public class TSConnector {
                     });
         }else {
             Promise<HttpResponse<Buffer>> promise = Promise.promise();
-            sendBuffer(request, HttpMethod.PUT, Buffer.buffer(output), promise);
+            sendBuffer(request, endpoint, method, buffer, promise);
             promise.future().setHandler(ar -> {
+                writes.incrementAndGet();
                 if (ar.succeeded()) {
                     handler.handle(Future.succeededFuture(ar.result()));
                 } else {
@@ -206,15 +281,18 @@ public class TSConnector {
 
     }
 
-    private void sendBuffer(HttpRequest<Buffer> request, HttpMethod method, Buffer buffer, Promise<HttpResponse<Buffer>> promise) {
+    private void sendBuffer(HttpRequest<Buffer> request, String endpoint, HttpMethod method, Buffer buffer, Promise<HttpResponse<Buffer>> promise) {
+        DigestAuthSession session = authorize(request, endpoint, method);
+        sendBuffer(request, session, method, buffer, false, promise);
+    }
+
+    private void sendBuffer(HttpRequest<Buffer> request, DigestAuthSession session, HttpMethod method, Buffer buffer, boolean challenged, Promise<HttpResponse<Buffer>> promise) {
         request.sendBuffer(buffer, ar -> {
             if (ar.succeeded()) {
                 HttpResponse<Buffer> response = ar.result();
                 if (response.statusCode() == 401) {
-                    String authenticate = authenticate(response.getHeader("WWW-Authenticate"), uri, method.name(), username, password);
-                    if (authenticate != null) {
-                        request.putHeader("Authorization", authenticate);
-                        sendBuffer(request, method, buffer, promise);
+                    if (!challenged && rechallenge(request, session, method, response)) {
+                        sendBuffer(request, session, method, buffer, true, promise);
                     } else {
                         promise.fail("Could not authenticate");
                     }
@@ -229,15 +307,18 @@ public class TSConnector {
         });
     }
 
-    private void send(HttpRequest<Buffer> request, HttpMethod method, Promise<HttpResponse<Buffer>> promise) {
+    private void send(HttpRequest<Buffer> request, String endpoint, HttpMethod method, Promise<HttpResponse<Buffer>> promise) {
+        DigestAuthSession session = authorize(request, endpoint, method);
+        send(request, session, method, false, promise);
+    }
+
+    private void send(HttpRequest<Buffer> request, DigestAuthSession session, HttpMethod method, boolean challenged, Promise<HttpResponse<Buffer>> promise) {
         request.send(ar -> {
             if (ar.succeeded()) {
                 HttpResponse<Buffer> response = ar.result();
                 if (response.statusCode() == 401) {
-                    String authenticate = authenticate(response.getHeader("WWW-Authenticate"), uri, method.name(), username, password);
-                    if (authenticate != null) {
-                        request.putHeader("Authorization", authenticate);
-                        send(request, method, promise);
+                    if (!challenged && rechallenge(request, session, method, response)) {
+                        send(request, session, method, true, promise);
                     } else {
                         promise.fail("Could not authenticate");
                     }
@@ -252,74 +333,106 @@ public class TSConnector {
         });
     }
 
-    private String auth(String uri, String method, String username, String password) {
-        if (this.values.isEmpty()) {
-            return null;
-        } else {
-            long nc = 0L;
-            String nonce = (String)this.values.get("nonce");
-            String realm = (String)this.values.get("realm");
-            byte[] cnonceBytes = new byte[8];
-            (new Random()).nextBytes(cnonceBytes);
-            String clientNonce = this.digest2HexString(cnonceBytes);
-            String nonceCount = String.format("%08x", ++nc);
-            DigestUtils a = new DigestUtils();
-            String ha1 = (new DigestUtils()).md5Hex(username + ":" + realm + ":" + password);
-            String ha2 = (new DigestUtils()).md5Hex(method + ":" + uri);
-            String response = (new DigestUtils()).md5Hex(ha1 + ":" + nonce + ":" + nonceCount + ":" + clientNonce + ":auth:" + ha2);
-            return "Digest username=\"" + username + "\", realm=\"" + realm + "\", nonce=\"" + nonce + "\", uri=\"" + uri + "\", cnonce=\"" + clientNonce + "\", nc=" + nonceCount + ", qop=auth, response=\"" + response + "\", algorithm=\"MD5\", state=true";
+    /**
+     * Adds a precomputed Digest Authorization header if the endpoint has already been challenged before.
+     */
+    private DigestAuthSession authorize(HttpRequest<Buffer> request, String endpoint, HttpMethod method) {
+        DigestAuthSession session = authSessions.computeIfAbsent(endpoint, e -> new DigestAuthSession(uri, username, password));
+        String authorization = session.authorization(method.name());
+        if (authorization != null) {
+            request.putHeader("Authorization", authorization);
         }
-    }
-    private String digest2HexString(byte[] digest) {
-        StringBuilder digestString = new StringBuilder();
-        byte[] var3 = digest;
-        int var4 = digest.length;
-
-        for(int var5 = 0; var5 < var4; ++var5) {
-            byte b = var3[var5];
-            int low = b & 15;
-            int hi = (b & 240) >> 4;
-            digestString.append(Integer.toHexString(hi));
-            digestString.append(Integer.toHexString(low));
-        }
-
-        return digestString.toString();
+        return session;
     }
 
-    private void getValues(String wwwAuthenticate) {
-        if (wwwAuthenticate.startsWith("Digest ")) {
-            String[] pairs = wwwAuthenticate.substring(7).split(",");
-            String[] var3 = pairs;
-            int var4 = pairs.length;
-
-            for(int var5 = 0; var5 < var4; ++var5) {
-                String pair = var3[var5];
-                String[] entry = pair.split("=");
-                this.values.put(entry[0].trim(), entry[1].trim().replaceAll("\"", ""));
-            }
+    /**
+     * Takes over a new (e.g. stale) nonce from a 401 response and re-authorizes the request.
+     * @return false if the response carries no usable Digest challenge
+     */
+    private boolean rechallenge(HttpRequest<Buffer> request, DigestAuthSession session, HttpMethod method, HttpResponse<Buffer> response) {
+        if (session.challenge(response.getHeader("WWW-Authenticate"))) {
+            challengeRoundTrips.incrementAndGet();
+            request.putHeader("Authorization", session.authorization(method.name()));
+            return true;
         }
+        return false;
     }
 
-    public  String authenticate(String wwwAuthenticate, String uri, String methodName, String username, String password) {
-        getValues(wwwAuthenticate);
-        return auth(uri,methodName,username,password);
+    /**
+     * @return number of requests which had to be repeated because of a Digest challenge
+     */
+    public long getChallengeRoundTrips() {
+        return challengeRoundTrips.get();
     }
 
+    /**
+     * Sends a SPARQL query. Concurrent identical queries share one request and its response, callers must not modify it.
+     */
     public void query(String query, String accept, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
+        query(query, accept, 0, handler);
+    }
+
+    /**
+     * @param timeout in milliseconds, passed to Virtuoso, 0 for none. The request times out QUERY_TIMEOUT_MARGIN later,
+     *                so that Virtuoso can answer a query it stopped with its partial result and an X-SQL-State header first
+     */
+    public void query(String query, String accept, long timeout, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
+        String key = writes.get() + "\n" + accept + "\n" + timeout + "\n" + query;
+        if (join(pendingQueries, key, handler)) {
+            return;
+        }
         HttpRequest<Buffer> request = client
                 .getAbs(uri + queryEndpoint)
                 .addQueryParam("query", query);
         if (accept != null) {
             request.putHeader("Accept", accept);
         }
-        query(request, handler);
+        if (timeout > 0) {
+            request.addQueryParam("timeout", String.valueOf(timeout));
+            request.timeout(timeout + QUERY_TIMEOUT_MARGIN);
+        }
+        query(request, result -> complete(pendingQueries, key, result));
     }
 
+    /**
+     * Registers a caller of a read, reads started before the last completed write are not joined.
+     * @return true if an identical read is already in flight and the caller has been added to it
+     */
+    private <T> boolean join(Map<String, List<Handler<AsyncResult<T>>>> pendingReads, String key, Handler<AsyncResult<T>> handler) {
+        synchronized (pendingReads) {
+            List<Handler<AsyncResult<T>>> handlers = pendingReads.get(key);
+            if (handlers != null) {
+                handlers.add(handler);
+                coalescedCallers.incrementAndGet();
+                return true;
+            }
+            handlers = new ArrayList<>();
+            handlers.add(handler);
+            pendingReads.put(key, handlers);
+            return false;
+        }
+    }
+
+    private <T> void complete(Map<String, List<Handler<AsyncResult<T>>>> pendingReads, String key, AsyncResult<T> result) {
+        List<Handler<AsyncResult<T>>> handlers;
+        synchronized (pendingReads) {
+            handlers = pendingReads.remove(key);
+        }
+        for (Handler<AsyncResult<T>> handler : handlers) {
+            handler.handle(result);
+        }
+    }
 
+    /**
+     * @return number of reads which were answered by an identical read already in flight
+     */
+    public long getCoalescedCallers() {
+        return coalescedCallers.get();
+    }
 
     public void query(HttpRequest<Buffer> request, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
         if (breaker != null) {
-            breaker.<HttpResponse<Buffer>>execute(promise -> send(request, HttpMethod.GET, promise))
+            breaker.<HttpResponse<Buffer>>execute(promise -> send(request, queryEndpoint, HttpMethod.GET, promise))
                     .setHandler(ar -> {
                         if (ar.succeeded()) {
                             handler.handle(Future.succeededFuture(ar.result()));
@@ -329,7 +442,7 @@ public class TSConnector {
                     });
         } else {
             Promise<HttpResponse<Buffer>> promise = Promise.promise();
-            send(request, HttpMethod.GET, promise);
+            send(request, queryEndpoint, HttpMethod.GET, promise);
             promise.future().setHandler(ar -> {
                 if (ar.succeeded()) {
                     handler.handle(Future.succeededFuture(ar.result()));
@@ -0,0 +1,150 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import de.fraunhofer.fokus.ids.services.authService.AuthAdapterServiceVerticle;
+import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of the validation results of inbound DATs, keyed by the SHA-256 of the token.
+ * Valid tokens are cached until their exp claim, rejected tokens for a short time only.
+ * Failures to reach the AuthAdapterService are not cached, so a token is validated again once the service is back.
+ * One instance is shared by all verticles of a Vert.x instance.
+ */
+public class ValidatedTokenCache implements Shareable {
+
+    private static final String SHARED_MAP = "validatedTokenCache";
+    private static final String KEY = "tokens";
+
+    private final AuthAdapterService authAdapterService;
+    private final int maxSize;
+    private final long maxTtl;
+    private final long negativeTtl;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+        private final boolean valid;
+        private final long expires;
+
+        private Entry(boolean valid, long expires) {
+            this.valid = valid;
+            this.expires = expires;
+        }
+    }
+
+    private ValidatedTokenCache(Vertx vertx, JsonObject config) {
+        this.authAdapterService = AuthAdapterService.createProxy(vertx, AuthAdapterServiceVerticle.ADDRESS);
+        this.maxSize = Math.max(1, config.getInteger("maxSize", 10000));
+        this.maxTtl = config.getLong("maxTtl", 3600000L);
+        this.negativeTtl = config.getLong("negativeTtl", 10000L);
+    }
+
+    public static ValidatedTokenCache shared(Vertx vertx) {
+        return shared(vertx, new JsonObject());
+    }
+
+    /**
+     * @param config used if the cache does not exist yet: "maxSize" tokens (default 10000), "maxTtl" in milliseconds
+     *               for valid tokens without exp claim (default 3600000) and "negativeTtl" in milliseconds for rejected
+     *               tokens (default 10000)
+     */
+    public static ValidatedTokenCache shared(Vertx vertx, JsonObject config) {
+        LocalMap<String, ValidatedTokenCache> caches = vertx.sharedData().getLocalMap(SHARED_MAP);
+        ValidatedTokenCache cache = caches.get(KEY);
+        if (cache == null) {
+            ValidatedTokenCache newCache = new ValidatedTokenCache(vertx, config);
+            cache = caches.putIfAbsent(KEY, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Succeeds if the token is valid, the AuthAdapterService is only asked for tokens without cached result.
+     */
+    public void isAuthenticated(String token, Handler<AsyncResult<Void>> resultHandler) {
+        if (token == null) {
+            resultHandler.handle(Future.failedFuture("No token provided."));
+            return;
+        }
+        String digest = DigestUtils.sha256Hex(token);
+        Entry entry = get(digest);
+        if (entry != null) {
+            resultHandler.handle(entry.valid ? Future.succeededFuture() : Future.failedFuture("Token is not valid."));
+            return;
+        }
+        authAdapterService.isAuthenticated(token, reply -> {
+            long now = System.currentTimeMillis();
+            if (reply.succeeded()) {
+                Long exp = JwtClaims.of(token).getExpiry();
+                long expires = exp != null ? Math.min(exp, now + maxTtl) : now + maxTtl;
+                if (expires > now) {
+                    put(digest, new Entry(true, expires));
+                }
+            } else if (isRejection(reply.cause())) {
+                put(digest, new Entry(false, now + negativeTtl));
+            }
+            resultHandler.handle(reply);
+        });
+    }
+
+    /**
+     * @return true if the AuthAdapterService answered the request, false if it timed out or was not reachable
+     */
+    private boolean isRejection(Throwable cause) {
+        return cause instanceof ReplyException && ((ReplyException) cause).failureType() == ReplyFailure.RECIPIENT_FAILURE;
+    }
+
+    private synchronized Entry get(String digest) {
+        Entry entry = entries.get(digest);
+        if (entry != null && entry.expires <= System.currentTimeMillis()) {
+            entries.remove(digest);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    private synchronized void put(String digest, Entry entry) {
+        entries.put(digest, entry);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+}
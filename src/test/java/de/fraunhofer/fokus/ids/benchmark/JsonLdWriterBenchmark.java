@@ -0,0 +1,119 @@
+package de.fraunhofer.fokus.ids.benchmark;
+
+import de.fraunhofer.fokus.ids.utils.FlatJsonLdWriter;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.RDF;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Compares rendering a connector graph with Jena's JSON-LD writer and with FlatJsonLdWriter,
+ * both starting from the N-Triples the triplestore returns, as TSConnector.getGraph does.
+ * Plain main, run on the test classpath after mvn test-compile. The optional arguments are the number of resources and iterations.
+ */
+public class JsonLdWriterBenchmark {
+
+    private static final String IDS = "https://w3id.org/idsa/core/";
+    private static final String CONTEXT = "https://w3id.org/idsa/contexts/context.jsonld";
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int resources = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        byte[] nTriples = connectorGraph(resources);
+        System.out.println("Connector graph with " + resources + " resources, " + nTriples.length + " bytes of N-Triples");
+        System.out.println("Jena JSON-LD " + render(nTriples, false).length + " bytes, flat JSON-LD " + render(nTriples, true).length + " bytes");
+
+        Measurement.run("RDFDataMgr.write JSONLD", iterations / 5, iterations, () -> render(nTriples, false, DISCARD));
+        Measurement.run("FlatJsonLdWriter", iterations / 5, iterations, () -> render(nTriples, true, DISCARD));
+    }
+
+    private static byte[] render(byte[] nTriples, boolean flat) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        render(nTriples, flat, out);
+        return out.toByteArray();
+    }
+
+    private static void render(byte[] nTriples, boolean flat, OutputStream out) {
+        RDFParser parser = RDFParser.create()
+                .source(new ByteArrayInputStream(nTriples))
+                .lang(Lang.NTRIPLES)
+                .checking(false)
+                .build();
+        if (flat) {
+            parser.parse(new FlatJsonLdWriter(out, CONTEXT));
+        } else {
+            Graph graph = GraphFactory.createDefaultGraph();
+            parser.parse(StreamRDFLib.graph(graph));
+            RDFDataMgr.write(out, graph, Lang.JSONLD);
+        }
+    }
+
+    /**
+     * @return a connector self-description with one catalog of the given number of resources, as N-Triples
+     */
+    private static byte[] connectorGraph(int resources) {
+        Model model = ModelFactory.createDefaultModel();
+        String base = "https://connector.example.org/";
+        Resource connector = model.createResource(base + "connector")
+                .addProperty(RDF.type, model.createResource(IDS + "BaseConnector"))
+                .addProperty(property(model, "title"), model.createLiteral("Example connector", "en"))
+                .addProperty(property(model, "curator"), model.createResource(base + "participant"))
+                .addProperty(property(model, "maintainer"), model.createResource(base + "participant"))
+                .addProperty(property(model, "outboundModelVersion"), "3.1.0");
+        Resource catalog = model.createResource(base + "catalog")
+                .addProperty(RDF.type, model.createResource(IDS + "ResourceCatalog"));
+        connector.addProperty(property(model, "resourceCatalog"), catalog);
+        for (int i = 0; i < resources; i++) {
+            Resource resource = model.createResource(base + "resource/" + i)
+                    .addProperty(RDF.type, model.createResource(IDS + "Resource"))
+                    .addProperty(property(model, "title"), model.createLiteral("Resource " + i, "en"))
+                    .addProperty(property(model, "description"), model.createLiteral("Description of resource " + i + " offered by the example connector", "en"))
+                    .addProperty(property(model, "keyword"), model.createLiteral("keyword" + (i % 10), "en"))
+                    .addProperty(property(model, "keyword"), model.createLiteral("example", "en"))
+                    .addProperty(property(model, "language"), model.createResource("https://w3id.org/idsa/code/EN"))
+                    .addProperty(property(model, "publisher"), model.createResource(base + "participant"))
+                    .addProperty(property(model, "standardLicense"), model.createResource("http://creativecommons.org/licenses/by/4.0/"))
+                    .addProperty(property(model, "created"), model.createTypedLiteral("2020-06-01T12:00:00.000Z", XSDDatatype.XSDdateTimeStamp))
+                    .addProperty(property(model, "version"), String.valueOf(i % 3));
+            Resource representation = model.createResource(base + "resource/" + i + "/representation")
+                    .addProperty(RDF.type, model.createResource(IDS + "Representation"))
+                    .addProperty(property(model, "mediaType"), model.createResource(base + "mediaType/json"));
+            Resource artifact = model.createResource(base + "resource/" + i + "/artifact")
+                    .addProperty(RDF.type, model.createResource(IDS + "Artifact"))
+                    .addProperty(property(model, "fileName"), "resource" + i + ".json")
+                    .addProperty(property(model, "byteSize"), model.createTypedLiteral(String.valueOf(1024 * (i + 1)), XSDDatatype.XSDinteger));
+            representation.addProperty(property(model, "instance"), artifact);
+            resource.addProperty(property(model, "representation"), representation);
+            catalog.addProperty(property(model, "offeredResource"), resource);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDFDataMgr.write(out, model, Lang.NTRIPLES);
+        return out.toByteArray();
+    }
+
+    private static Property property(Model model, String localName) {
+        return model.createProperty(IDS, localName);
+    }
+}
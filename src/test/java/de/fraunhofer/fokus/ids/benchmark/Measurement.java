@@ -0,0 +1,42 @@
+package de.fraunhofer.fokus.ids.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Minimal timing and allocation measurement for the benchmark mains of this package.
+ * Allocated bytes are read from the HotSpot thread MXBean and reported as 0 on other JVMs.
+ */
+public class Measurement {
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private Measurement() {
+    }
+
+    /**
+     * Runs the task warmup times unmeasured, then iterations times measured, and prints time and allocation per run.
+     */
+    public static void run(String name, int warmup, int iterations, Task task) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            task.run();
+        }
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("%-40s %12.1f us/op %14d B/op%n", name, elapsed / 1000.0 / iterations, allocated / iterations);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,75 @@
+package de.fraunhofer.fokus.ids.benchmark;
+
+import de.fraunhofer.fokus.ids.utils.BufferBody;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.StringBody;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares forwarding a SPARQL JSON result as is with parsing it into a JsonObject and encoding it again,
+ * as the reply to a QueryMessage did before. Both variants build and write the complete multipart entity.
+ * Plain main, run on the test classpath after mvn test-compile. The optional arguments are the number of rows and iterations.
+ */
+public class QueryResultPassThroughBenchmark {
+
+    private static final String HEADER = "{\"@type\":\"ids:ResultMessage\",\"@id\":\"https://broker.example.org/ResultMessage/1\"}";
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Buffer body = sparqlResult(rows);
+        System.out.println("SPARQL result of " + rows + " rows, " + body.length() + " bytes");
+
+        Measurement.run("re-serialized", iterations / 4, iterations, () -> {
+            JsonObject result = body.toJsonObject();
+            write(MultipartEntityBuilder.create()
+                    .setCharset(StandardCharsets.UTF_8)
+                    .setContentType(ContentType.MULTIPART_FORM_DATA)
+                    .addPart("header", new StringBody(HEADER, ContentType.create("application/json")))
+                    .addPart("payload", new StringBody(result.encode(), ContentType.create("application/json")))
+                    .build());
+        });
+        Measurement.run("passed through", iterations / 4, iterations, () ->
+                write(MultipartEntityBuilder.create()
+                        .setCharset(StandardCharsets.UTF_8)
+                        .setContentType(ContentType.MULTIPART_FORM_DATA)
+                        .addPart("header", new StringBody(HEADER, ContentType.create("application/json")))
+                        .addPart("payload", new BufferBody(body, ContentType.create("application/sparql-results+json", StandardCharsets.UTF_8)))
+                        .build()));
+    }
+
+    private static void write(HttpEntity entity) throws Exception {
+        entity.writeTo(DISCARD);
+    }
+
+    private static Buffer sparqlResult(int rows) {
+        JsonArray bindings = new JsonArray();
+        for (int i = 0; i < rows; i++) {
+            bindings.add(new JsonObject()
+                    .put("s", new JsonObject().put("type", "uri").put("value", "https://broker.example.org/catalog/" + (i / 50) + "/dataset/" + i))
+                    .put("p", new JsonObject().put("type", "uri").put("value", "http://purl.org/dc/terms/title"))
+                    .put("o", new JsonObject().put("type", "literal").put("xml:lang", "en").put("value", "Dataset number " + i + " of the benchmark catalogue")));
+        }
+        return new JsonObject()
+                .put("head", new JsonObject().put("link", new JsonArray()).put("vars", new JsonArray().add("s").add("p").add("o")))
+                .put("results", new JsonObject().put("distinct", false).put("ordered", true).put("bindings", bindings))
+                .toBuffer();
+    }
+}